@@ -45,7 +45,8 @@ async function checkForUpdate(deploymentKey = null, pathPrefix = null, bundleFil
     queryPackage = localPackage;
   } else {
     queryPackage = { appVersion: config.appVersion };
-    if (Platform.OS === "ios" && config.packageHash) {
+    // On Android the binary's hash only describes the bundle of the default path prefix.
+    if (config.packageHash && (Platform.OS === "ios" || !pathPrefix)) {
       queryPackage.packageHash = config.packageHash;
     }
   }
@@ -65,10 +66,10 @@ async function checkForUpdate(deploymentKey = null, pathPrefix = null, bundleFil
    *    bug in the server, but we're adding this check just to double-check that the
    *    client app is resilient to a potential issue with the update check.
    * 4) The server said there is an update, but the update's hash is the same as that
-   *    of the binary's currently running version. This should only happen in Android -
-   *    unlike iOS, we don't attach the binary's hash to the updateCheck request
-   *    because we want to avoid having to install diff updates against the binary's
-   *    version, which we can't do yet on Android.
+   *    of the binary's currently running version. This should only happen in Android
+   *    for path prefixes other than the default one - the binary's hash is attached
+   *    to the updateCheck request only for the bundle it describes, which is also the
+   *    only one whose diff updates can be installed against the binary's files.
    */
   if (!update || update.updateAppVersion ||
     localPackage && (update.packageHash === localPackage.packageHash) ||
@@ -23,3 +23,11 @@
 
 # Can't find referenced class org.bouncycastle.**
 -dontwarn com.nimbusds.jose.**
+
+# Optional decoders of compressed downloads, loaded via reflection when the app includes them.
+-keep class org.brotli.dec.BrotliInputStream {
+    public <init>(java.io.InputStream);
+}
+-keep class com.github.luben.zstd.ZstdInputStream {
+    public <init>(java.io.InputStream);
+}
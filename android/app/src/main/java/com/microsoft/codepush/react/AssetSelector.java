@@ -0,0 +1,144 @@
+package com.microsoft.codepush.react;
+
+import android.content.Context;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Picks the files of a package that the device doesn't need. Images are packaged in a drawable-<density>
+// folder for every density they were provided in, and Android only ever loads the one variant it picks for
+// the display: the closest density at or above the display's, or else the highest one. Files in folders
+// named after an ABI are only needed if the device supports that ABI.
+class AssetSelector {
+
+    private static final String[] DENSITY_QUALIFIERS = {"ldpi", "mdpi", "tvdpi", "hdpi", "xhdpi", "xxhdpi", "xxxhdpi"};
+    private static final int[] DENSITIES = {120, 160, 213, 240, 320, 480, 640};
+    private static final Set<String> KNOWN_ABIS = new HashSet<>(Arrays.asList(
+            "armeabi", "armeabi-v7a", "arm64-v8a", "x86", "x86_64", "mips", "mips64"));
+
+    private final int mDensityDpi;
+    private final Set<String> mSupportedAbis;
+
+    public AssetSelector(int densityDpi, Collection<String> supportedAbis) {
+        mDensityDpi = densityDpi;
+        mSupportedAbis = new HashSet<>(supportedAbis);
+    }
+
+    public static AssetSelector forDevice(Context context) {
+        List<String> supportedAbis = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? Arrays.asList(Build.SUPPORTED_ABIS)
+                : Arrays.asList(Build.CPU_ABI, Build.CPU_ABI2);
+        return new AssetSelector(context.getResources().getDisplayMetrics().densityDpi, supportedAbis);
+    }
+
+    // Returns the paths, out of all the paths of a package, of the files that the device doesn't need.
+    public Set<String> getSkippedPaths(Collection<String> paths) {
+        Set<String> skippedPaths = new HashSet<>();
+        // The variant kept so far of every image, keyed by its path without the density qualifier.
+        Map<String, String> selectedVariants = new HashMap<>();
+        for (String path : paths) {
+            if (isForUnsupportedAbi(path)) {
+                skippedPaths.add(path);
+                continue;
+            }
+
+            int density = getDensity(path);
+            if (density == 0) {
+                continue;
+            }
+
+            String variantKey = getVariantKey(path);
+            String selectedVariant = selectedVariants.get(variantKey);
+            if (selectedVariant == null) {
+                selectedVariants.put(variantKey, path);
+            } else if (isBetterDensity(density, getDensity(selectedVariant))) {
+                skippedPaths.add(selectedVariant);
+                selectedVariants.put(variantKey, path);
+            } else {
+                skippedPaths.add(path);
+            }
+        }
+
+        return skippedPaths;
+    }
+
+    private boolean isForUnsupportedAbi(String path) {
+        String[] segments = path.split("/");
+        // The last segment is the file name.
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (KNOWN_ABIS.contains(segments[i]) && !mSupportedAbis.contains(segments[i])) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isBetterDensity(int density, int selectedDensity) {
+        if (density >= mDensityDpi && selectedDensity >= mDensityDpi) {
+            return density < selectedDensity;
+        }
+
+        return density >= mDensityDpi || (selectedDensity < mDensityDpi && density > selectedDensity);
+    }
+
+    // Returns the density of the folder the file is in, or 0 if the folder has no density qualifier.
+    private static int getDensity(String path) {
+        String[] qualifiers = getFolderName(path).split("-");
+        // The first part of the folder name is the resource type.
+        for (int i = 1; i < qualifiers.length; i++) {
+            int density = parseDensityQualifier(qualifiers[i]);
+            if (density > 0) {
+                return density;
+            }
+        }
+
+        return 0;
+    }
+
+    private static int parseDensityQualifier(String qualifier) {
+        for (int i = 0; i < DENSITY_QUALIFIERS.length; i++) {
+            if (DENSITY_QUALIFIERS[i].equals(qualifier)) {
+                return DENSITIES[i];
+            }
+        }
+
+        if (qualifier.endsWith("dpi") && qualifier.length() > "dpi".length()) {
+            try {
+                return Integer.parseInt(qualifier.substring(0, qualifier.length() - "dpi".length()));
+            } catch (NumberFormatException e) {
+                // Such as nodpi and anydpi, which are not density variants.
+            }
+        }
+
+        return 0;
+    }
+
+    private static String getVariantKey(String path) {
+        int fileNameIndex = path.lastIndexOf('/');
+        int folderNameIndex = path.lastIndexOf('/', fileNameIndex - 1) + 1;
+        StringBuilder folderName = new StringBuilder();
+        for (String qualifier : getFolderName(path).split("-")) {
+            if (folderName.length() == 0 || parseDensityQualifier(qualifier) == 0) {
+                folderName.append(folderName.length() == 0 ? "" : "-").append(qualifier);
+            }
+        }
+
+        return path.substring(0, folderNameIndex) + folderName + path.substring(fileNameIndex);
+    }
+
+    private static String getFolderName(String path) {
+        int fileNameIndex = path.lastIndexOf('/');
+        if (fileNameIndex < 0) {
+            return "";
+        }
+
+        return path.substring(path.lastIndexOf('/', fileNameIndex - 1) + 1, fileNameIndex);
+    }
+}
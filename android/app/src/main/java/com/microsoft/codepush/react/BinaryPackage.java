@@ -0,0 +1,185 @@
+package com.microsoft.codepush.react;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// The files of the CodePush package that the binary was built with, as listed in the
+// CodePushBinaryManifest asset that codepush.gradle writes next to the binary hash. Diff updates
+// released against the binary version use them in place of a current package.
+class BinaryPackage {
+
+    private static final String RESOURCES_FOLDER_PREFIX = "res/";
+    // aapt moves density specific resources to folders with the "-v4" version qualifier.
+    private static final String RESOURCES_VERSION_QUALIFIER = "-v4";
+
+    private final Context mContext;
+
+    public BinaryPackage(Context context) {
+        mContext = context;
+    }
+
+    // Copies the files of the binary package, apart from the excluded ones, into the folder and returns
+    // their hashes, keyed by their path relative to it. The JS bundle and its metadata are read from the
+    // assets and images from the resources of the APK.
+    // Returns null if the binary has no manifest, e.g. because it was built without codepush.gradle, or if
+    // any of the files is missing or was changed while building the APK, such as crunched images.
+    public Map<String, String> copyContents(String folderPath, Set<String> excludedPaths) throws IOException {
+        JSONArray manifest;
+        try {
+            manifest = new JSONArray(CodePushUtils.getStringFromInputStream(
+                    mContext.getAssets().open(CodePushConstants.CODE_PUSH_BINARY_MANIFEST_FILE_NAME)));
+        } catch (IOException e) {
+            return null;
+        } catch (JSONException e) {
+            CodePushUtils.log("Unable to parse the binary's manifest: " + e.getMessage());
+            return null;
+        }
+
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CodePushUnknownException("SHA-256 is not supported.", e);
+        }
+
+        Map<String, String> fileHashes = new HashMap<>();
+        List<ZipFile> apkFiles = null;
+        byte[] buffer = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+        try {
+            for (int i = 0; i < manifest.length(); i++) {
+                // Entries are "<relativePath>:<hash>", as in the manifest that the binary hash was computed from.
+                String manifestEntry = manifest.optString(i);
+                int separatorIndex = manifestEntry.lastIndexOf(':');
+                if (separatorIndex < 0) {
+                    continue;
+                }
+
+                String relativePath = ZipExtractor.getRelativePath(manifestEntry.substring(0, separatorIndex));
+                String fileHash = manifestEntry.substring(separatorIndex + 1);
+                if (excludedPaths.contains(relativePath) || !relativePath.startsWith(CodePushConstants.CODE_PUSH_FOLDER_PREFIX + "/")) {
+                    continue;
+                }
+
+                String binaryPath = relativePath.substring(CodePushConstants.CODE_PUSH_FOLDER_PREFIX.length() + 1);
+                InputStream inputStream = null;
+                if (binaryPath.indexOf('/') < 0) {
+                    try {
+                        inputStream = mContext.getAssets().open(binaryPath);
+                    } catch (IOException e) {
+                        // Handled below, like any other missing file.
+                    }
+                } else {
+                    if (apkFiles == null) {
+                        apkFiles = openApkFiles();
+                    }
+
+                    // Apps installed from an app bundle have their density specific resources in split APKs.
+                    for (ZipFile apkFile : apkFiles) {
+                        ZipEntry entry = getResourceEntry(apkFile, binaryPath);
+                        if (entry != null) {
+                            inputStream = apkFile.getInputStream(entry);
+                            break;
+                        }
+                    }
+                }
+
+                if (inputStream == null || !copyFile(inputStream, new File(folderPath, relativePath), fileHash, messageDigest, buffer)) {
+                    CodePushUtils.log("The binary's " + relativePath + " is missing or was changed while building the APK.");
+                    return null;
+                }
+
+                fileHashes.put(relativePath, fileHash);
+            }
+        } finally {
+            if (apkFiles != null) {
+                for (ZipFile apkFile : apkFiles) {
+                    apkFile.close();
+                }
+            }
+        }
+
+        CodePushUtils.log("Copied " + fileHashes.size() + " files from the binary to use as the base of a diff update.");
+        return fileHashes;
+    }
+
+    private List<ZipFile> openApkFiles() throws IOException {
+        ApplicationInfo applicationInfo = mContext.getApplicationInfo();
+        List<ZipFile> apkFiles = new ArrayList<>();
+        try {
+            apkFiles.add(new ZipFile(applicationInfo.sourceDir));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && applicationInfo.splitSourceDirs != null) {
+                for (String splitSourceDir : applicationInfo.splitSourceDirs) {
+                    apkFiles.add(new ZipFile(splitSourceDir));
+                }
+            }
+        } catch (IOException e) {
+            for (ZipFile apkFile : apkFiles) {
+                apkFile.close();
+            }
+
+            throw e;
+        }
+
+        return apkFiles;
+    }
+
+    private static ZipEntry getResourceEntry(ZipFile apkFile, String binaryPath) {
+        ZipEntry entry = apkFile.getEntry(RESOURCES_FOLDER_PREFIX + binaryPath);
+        if (entry == null) {
+            int folderEndIndex = binaryPath.indexOf('/');
+            entry = apkFile.getEntry(RESOURCES_FOLDER_PREFIX + binaryPath.substring(0, folderEndIndex)
+                    + RESOURCES_VERSION_QUALIFIER + binaryPath.substring(folderEndIndex));
+        }
+
+        return entry;
+    }
+
+    // Returns false, leaving nothing behind, if the file doesn't have the expected hash.
+    private static boolean copyFile(InputStream inputStream, File file, String expectedHash,
+                                    MessageDigest messageDigest, byte[] buffer) throws IOException {
+        file.getParentFile().mkdirs();
+        messageDigest.reset();
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            int numBytesRead;
+            while ((numBytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, numBytesRead);
+                messageDigest.update(buffer, 0, numBytesRead);
+            }
+        } finally {
+            try {
+                if (outputStream != null) outputStream.close();
+                inputStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+
+        if (!CodePushUpdateUtils.getHashString(messageDigest.digest()).equals(expectedHash)) {
+            file.delete();
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,510 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Downloads an update described by a chunk manifest, published next to the package as
+// "<downloadUrl>.chunks.json":
+//
+//   {"minChunkSize": 2048, "averageChunkSize": 8192, "maxChunkSize": 65536,
+//    "files": [{"path": "CodePush/index.android.bundle", "url": "index.android.bundle",
+//               "size": 1234567, "hash": "<SHA-256>", "chunks": [{"length": 9876, "hash": "<SHA-256>"}, ...]}]}
+//
+// Chunk boundaries are content defined, so a change to a file only changes the chunks around it. Each
+// file of the update is rebuilt from the chunks found in the same file of the packages already on the
+// device, whichever version they are, and the chunks none of them have are fetched as byte ranges of
+// the file's url, which is relative to the manifest.
+//
+// Chunks are cut with a gear rolling hash: for every byte b of a chunk, hash = (hash << 1) + GEAR[b]
+// starting from 0, where GEAR[i] is the first 8 bytes, big endian, of the SHA-256 of the single byte i.
+// A chunk ends after maxChunkSize bytes, or once it has minChunkSize bytes and the top
+// log2(averageChunkSize) bits of the hash are all zero.
+class ChunkedDownloader {
+
+    private static final long[] GEAR = buildGearTable();
+
+    private static long[] buildGearTable() {
+        long[] gear = new long[256];
+        MessageDigest messageDigest = getSha256Digest();
+        for (int i = 0; i < gear.length; i++) {
+            byte[] hash = messageDigest.digest(new byte[]{(byte) i});
+            for (int j = 0; j < 8; j++) {
+                gear[i] = (gear[i] << 8) | (hash[j] & 0xff);
+            }
+        }
+
+        return gear;
+    }
+
+    private static class ChunkLocation {
+        final File file;
+        final long offset;
+        final int length;
+
+        ChunkLocation(File file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // A file of the update, as listed in the chunk manifest.
+    private static class FileEntry {
+        final String relativePath;
+        final URL url;
+        final long size;
+        final String hash;
+        final String[] chunkHashes;
+        // The offset of every chunk in the file, followed by the size of the file.
+        final long[] chunkOffsets;
+
+        FileEntry(String relativePath, URL url, long size, String hash, String[] chunkHashes, long[] chunkOffsets) {
+            this.relativePath = relativePath;
+            this.url = url;
+            this.size = size;
+            this.hash = hash;
+            this.chunkHashes = chunkHashes;
+            this.chunkOffsets = chunkOffsets;
+        }
+    }
+
+    private final CodePushTransport mTransport;
+    private final URL mManifestUrl;
+    private final List<String> mLocalPackageFolderPaths;
+    private final DownloadProgressCallback mProgressCallback;
+    private final MessageDigest mChunkDigest = getSha256Digest();
+    private final byte[] mBuffer = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+    private final Map<File, RandomAccessFile> mOpenLocalFiles = new HashMap<>();
+    private final List<FileEntry> mFiles = new ArrayList<>();
+    // The file hashes saved with each local package, keyed by the package's folder.
+    private final Map<String, Map<String, String>> mLocalFileHashes = new HashMap<>();
+    // A local file for every hash in mLocalFileHashes.
+    private final Map<String, File> mLocalFilesByHash = new HashMap<>();
+    private int mMinChunkSize;
+    private int mMaxChunkSize;
+    private long mBoundaryMask;
+    private long mTotalBytes;
+    private long mWrittenBytes = 0;
+    private long mFetchedBytes = 0;
+    // Set once the server answers a range request with the whole file.
+    private boolean mIsRangeIgnored = false;
+
+    private ChunkedDownloader(CodePushTransport transport, URL manifestUrl, List<String> localPackageFolderPaths,
+                              DownloadProgressCallback progressCallback) {
+        mTransport = transport;
+        mManifestUrl = manifestUrl;
+        mLocalPackageFolderPaths = localPackageFolderPaths;
+        mProgressCallback = progressCallback;
+    }
+
+    // The suffix goes at the end of the path, signed download URLs keep their query as it is.
+    public static URL getManifestUrl(URL downloadUrl) throws IOException {
+        String query = downloadUrl.getQuery();
+        return new URL(downloadUrl, downloadUrl.getPath() + CodePushConstants.CHUNK_MANIFEST_URL_SUFFIX
+                + (query == null ? "" : "?" + query));
+    }
+
+    // Fetches the chunk manifest of the package. Returns null if there is no usable chunk manifest, in
+    // which case the caller is expected to download the package itself.
+    // When assetSelector is set and the update has an asset index, the files the device doesn't use are
+    // left out of the download.
+    public static ChunkedDownloader create(CodePushTransport transport, URL manifestUrl, List<String> localPackageFolderPaths,
+                                           AssetSelector assetSelector, DownloadProgressCallback progressCallback) throws IOException {
+        ChunkedDownloader downloader = new ChunkedDownloader(transport, manifestUrl, localPackageFolderPaths, progressCallback);
+        JSONObject manifest = downloader.fetchManifest();
+        if (manifest == null) {
+            return null;
+        }
+
+        try {
+            downloader.mMinChunkSize = manifest.getInt("minChunkSize");
+            downloader.mMaxChunkSize = manifest.getInt("maxChunkSize");
+            int averageChunkSize = manifest.getInt("averageChunkSize");
+            if (Integer.bitCount(averageChunkSize) != 1 || downloader.mMinChunkSize < 1 || downloader.mMaxChunkSize < downloader.mMinChunkSize) {
+                CodePushUtils.log("The chunk sizes in the chunk manifest are not supported, downloading the whole package.");
+                return null;
+            }
+
+            downloader.mBoundaryMask = -1L << (64 - Integer.numberOfTrailingZeros(averageChunkSize));
+            JSONArray files = manifest.getJSONArray("files");
+            Set<String> skippedPaths = new HashSet<>();
+            if (assetSelector != null) {
+                List<String> relativePaths = new ArrayList<>();
+                for (int i = 0; i < files.length(); i++) {
+                    relativePaths.add(ZipExtractor.getRelativePath(files.getJSONObject(i).getString("path")));
+                }
+
+                if (relativePaths.contains(CodePushConstants.ASSET_INDEX_FILE_NAME)) {
+                    skippedPaths = assetSelector.getSkippedPaths(relativePaths);
+                }
+            }
+
+            for (int i = 0; i < files.length(); i++) {
+                JSONObject file = files.getJSONObject(i);
+                String relativePath = ZipExtractor.getRelativePath(file.getString("path"));
+                if (!skippedPaths.contains(relativePath)) {
+                    FileEntry fileEntry = downloader.parseFileEntry(file, relativePath);
+                    downloader.mFiles.add(fileEntry);
+                    downloader.mTotalBytes += fileEntry.size;
+                }
+            }
+        } catch (JSONException e) {
+            CodePushUtils.log("Unable to read the chunk manifest, downloading the whole package: " + e.getMessage());
+            return null;
+        }
+
+        return downloader;
+    }
+
+    private FileEntry parseFileEntry(JSONObject file, String relativePath) throws IOException, JSONException {
+        JSONArray chunks = file.getJSONArray("chunks");
+        int chunkCount = chunks.length();
+        String[] chunkHashes = new String[chunkCount];
+        long[] chunkOffsets = new long[chunkCount + 1];
+        for (int i = 0; i < chunkCount; i++) {
+            JSONObject chunk = chunks.getJSONObject(i);
+            chunkHashes[i] = chunk.getString("hash");
+            chunkOffsets[i + 1] = chunkOffsets[i] + chunk.getLong("length");
+        }
+
+        long size = file.getLong("size");
+        if (chunkOffsets[chunkCount] != size) {
+            throw new CodePushInvalidUpdateException("Update is invalid - the chunks of \"" + relativePath + "\" don't add up to its size.");
+        }
+
+        return new FileEntry(relativePath, getFileUrl(file.getString("url")), size, file.getString("hash"), chunkHashes, chunkOffsets);
+    }
+
+    // File URLs are relative to the manifest. Relative ones without a query of their own get the
+    // query of the download URL, which carries the signature of signed storage URLs.
+    private URL getFileUrl(String fileUrl) throws MalformedURLException {
+        URL url = new URL(mManifestUrl, fileUrl);
+        String query = mManifestUrl.getQuery();
+        boolean isAbsolute = fileUrl.startsWith("//") || fileUrl.matches("[a-zA-Z][a-zA-Z0-9+.-]*:.*");
+        if (query == null || url.getQuery() != null || isAbsolute) {
+            return url;
+        }
+
+        return new URL(url, url.getPath() + "?" + query);
+    }
+
+    // The storage the rebuilt files take up, each of them counted with a whole block of slack.
+    public long getRequiredBytes() {
+        return mTotalBytes + mFiles.size() * DiskSpacePreflight.FILE_SYSTEM_BLOCK_SIZE;
+    }
+
+    // Rebuilds the files of the update into unzippedFolderPath and adds their hashes to fileHashes.
+    public void download(String unzippedFolderPath, Map<String, String> fileHashes) throws IOException {
+        for (String localPackageFolderPath : mLocalPackageFolderPaths) {
+            Map<String, String> localFileHashes = CodePushUpdateUtils.getPackageManifestFileHashes(localPackageFolderPath);
+            mLocalFileHashes.put(localPackageFolderPath, localFileHashes);
+            for (Map.Entry<String, String> localFileHash : localFileHashes.entrySet()) {
+                if (!mLocalFilesByHash.containsKey(localFileHash.getValue())) {
+                    mLocalFilesByHash.put(localFileHash.getValue(), new File(localPackageFolderPath, localFileHash.getKey()));
+                }
+            }
+        }
+
+        FileUtils.deleteDirectoryAtPath(unzippedFolderPath);
+        new File(unzippedFolderPath).mkdirs();
+        try {
+            for (FileEntry file : mFiles) {
+                fileHashes.put(file.relativePath, rebuildFile(file, unzippedFolderPath));
+            }
+        } finally {
+            closeLocalFiles();
+        }
+
+        CodePushUtils.log("Rebuilt " + mWrittenBytes + " bytes, of which " + mFetchedBytes + " were downloaded.");
+    }
+
+    // Returns null if the manifest can't be fetched or parsed, whatever the reason: the package itself
+    // may still be available.
+    private JSONObject fetchManifest() {
+        HttpURLConnection connection = null;
+        try {
+            connection = CodePushUpdateManager.openDownloadConnection(mTransport, mManifestUrl);
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                if (responseCode != HttpURLConnection.HTTP_NOT_FOUND && responseCode != HttpURLConnection.HTTP_FORBIDDEN) {
+                    CodePushUtils.log("Server returned " + responseCode + " for " + mManifestUrl + ", downloading the whole package.");
+                }
+
+                return null;
+            }
+
+            InputStream inputStream = connection.getInputStream();
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                int numBytesRead;
+                while ((numBytesRead = inputStream.read(mBuffer)) != -1) {
+                    body.write(mBuffer, 0, numBytesRead);
+                }
+
+                return new JSONObject(body.toString("UTF-8"));
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException | JSONException e) {
+            CodePushUtils.log("Unable to get the chunk manifest " + mManifestUrl + ", downloading the whole package: " + e.getMessage());
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // Writes the file from its chunks and returns its hash, after checking it against the manifest.
+    private String rebuildFile(FileEntry file, String unzippedFolderPath) throws IOException {
+        MessageDigest fileDigest = getSha256Digest();
+        File targetFile = new File(unzippedFolderPath, file.relativePath);
+        targetFile.getParentFile().mkdirs();
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(targetFile), CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+        try {
+            File identicalLocalFile = mLocalFilesByHash.get(file.hash);
+            if (identicalLocalFile != null) {
+                copyLocalFile(identicalLocalFile, outputStream, fileDigest);
+            } else {
+                writeChunks(file, outputStream, fileDigest);
+            }
+        } finally {
+            outputStream.close();
+        }
+
+        String fileHash = CodePushUpdateUtils.getHashString(fileDigest.digest());
+        if (!fileHash.equals(file.hash)) {
+            throw new CodePushInvalidUpdateException("Update is invalid - the rebuilt \"" + file.relativePath + "\" doesn't match its hash.");
+        }
+
+        return fileHash;
+    }
+
+    private void writeChunks(FileEntry file, OutputStream outputStream, MessageDigest fileDigest) throws IOException {
+        // Local files known to be identical are only cut into chunks once.
+        Set<String> indexedFileHashes = new HashSet<>();
+        Map<String, ChunkLocation> localChunks = new HashMap<>();
+        for (String localPackageFolderPath : mLocalPackageFolderPaths) {
+            String localFileHash = mLocalFileHashes.get(localPackageFolderPath).get(file.relativePath);
+            if (localFileHash == null || indexedFileHashes.add(localFileHash)) {
+                indexLocalFile(new File(localPackageFolderPath, file.relativePath), localChunks);
+            }
+        }
+
+        String[] chunkHashes = file.chunkHashes;
+        long[] chunkOffsets = file.chunkOffsets;
+        int chunkCount = chunkHashes.length;
+        int i = 0;
+        while (i < chunkCount) {
+            ChunkLocation localChunk = localChunks.get(chunkHashes[i]);
+            if (localChunk != null) {
+                copyLocalChunk(localChunk, outputStream, fileDigest);
+                i++;
+                continue;
+            }
+
+            // Consecutive missing chunks are fetched with a single request. If the server doesn't
+            // support ranges, the rest of the file comes with that request anyway.
+            int end = i + 1;
+            while (end < chunkCount && (mIsRangeIgnored || !localChunks.containsKey(chunkHashes[end]))) {
+                end++;
+            }
+
+            i = fetchChunks(file.url, chunkHashes, chunkOffsets, i, end, outputStream, fileDigest);
+        }
+    }
+
+    // Adds the chunks of the file, cut the same way as the server did, to the index.
+    private void indexLocalFile(File file, Map<String, ChunkLocation> localChunks) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            long chunkOffset = 0;
+            int chunkLength = 0;
+            long hash = 0;
+            mChunkDigest.reset();
+            int numBytesRead;
+            while ((numBytesRead = inputStream.read(mBuffer)) != -1) {
+                int sliceStart = 0;
+                for (int i = 0; i < numBytesRead; i++) {
+                    hash = (hash << 1) + GEAR[mBuffer[i] & 0xff];
+                    chunkLength++;
+                    if (chunkLength >= mMaxChunkSize || (chunkLength >= mMinChunkSize && (hash & mBoundaryMask) == 0)) {
+                        mChunkDigest.update(mBuffer, sliceStart, i + 1 - sliceStart);
+                        addLocalChunk(localChunks, file, chunkOffset, chunkLength);
+                        sliceStart = i + 1;
+                        chunkOffset += chunkLength;
+                        chunkLength = 0;
+                        hash = 0;
+                    }
+                }
+
+                mChunkDigest.update(mBuffer, sliceStart, numBytesRead - sliceStart);
+            }
+
+            if (chunkLength > 0) {
+                addLocalChunk(localChunks, file, chunkOffset, chunkLength);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void addLocalChunk(Map<String, ChunkLocation> localChunks, File file, long offset, int length) {
+        String chunkHash = CodePushUpdateUtils.getHashString(mChunkDigest.digest());
+        if (!localChunks.containsKey(chunkHash)) {
+            localChunks.put(chunkHash, new ChunkLocation(file, offset, length));
+        }
+    }
+
+    private void copyLocalChunk(ChunkLocation localChunk, OutputStream outputStream, MessageDigest fileDigest) throws IOException {
+        RandomAccessFile localFile = mOpenLocalFiles.get(localChunk.file);
+        if (localFile == null) {
+            localFile = new RandomAccessFile(localChunk.file, "r");
+            mOpenLocalFiles.put(localChunk.file, localFile);
+        }
+
+        localFile.seek(localChunk.offset);
+        int remaining = localChunk.length;
+        while (remaining > 0) {
+            int numBytesRead = localFile.read(mBuffer, 0, Math.min(remaining, mBuffer.length));
+            if (numBytesRead < 0) {
+                throw new EOFException("Local file " + localChunk.file + " ended unexpectedly.");
+            }
+
+            write(outputStream, fileDigest, numBytesRead);
+            remaining -= numBytesRead;
+        }
+    }
+
+    private void copyLocalFile(File localFile, OutputStream outputStream, MessageDigest fileDigest) throws IOException {
+        InputStream inputStream = new FileInputStream(localFile);
+        try {
+            int numBytesRead;
+            while ((numBytesRead = inputStream.read(mBuffer)) != -1) {
+                write(outputStream, fileDigest, numBytesRead);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    // Fetches chunks [start, end) of the file with a range request, checking each of them on the way.
+    // Returns the index of the chunk after the last one written, which is the end of the file if the
+    // server sent the whole file: its remaining chunks are then taken from the same response instead of
+    // fetching the file again for every later gap.
+    private int fetchChunks(URL fileUrl, String[] chunkHashes, long[] chunkOffsets, int start, int end,
+                             OutputStream outputStream, MessageDigest fileDigest) throws IOException {
+        long rangeStart = chunkOffsets[start];
+        HttpURLConnection connection = CodePushUpdateManager.openDownloadConnection(mTransport, fileUrl);
+        try {
+            connection.setRequestProperty("Range", "bytes=" + rangeStart + "-" + (chunkOffsets[end] - 1));
+            int responseCode = connection.getResponseCode();
+            long bytesToSkip;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL && CodePushUpdateManager.isContentRangeStartingAt(connection, rangeStart)) {
+                bytesToSkip = 0;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // The server ignored the range and sent the whole file.
+                if (!mIsRangeIgnored) {
+                    CodePushUtils.log("The server doesn't support range requests, fetching the rest of every changed file.");
+                    mIsRangeIgnored = true;
+                }
+
+                bytesToSkip = rangeStart;
+                end = chunkHashes.length;
+            } else {
+                throw new IOException("Server returned " + responseCode + " for a range of " + fileUrl + ".");
+            }
+
+            InputStream inputStream = new BufferedInputStream(connection.getInputStream(), CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+            try {
+                while (bytesToSkip > 0) {
+                    long skipped = inputStream.skip(bytesToSkip);
+                    if (skipped <= 0) {
+                        throw new EOFException("Download of " + fileUrl + " ended unexpectedly.");
+                    }
+
+                    bytesToSkip -= skipped;
+                }
+
+                for (int i = start; i < end; i++) {
+                    mChunkDigest.reset();
+                    long remaining = chunkOffsets[i + 1] - chunkOffsets[i];
+                    while (remaining > 0) {
+                        int numBytesRead = inputStream.read(mBuffer, 0, (int) Math.min(remaining, mBuffer.length));
+                        if (numBytesRead < 0) {
+                            throw new EOFException("Download of " + fileUrl + " ended unexpectedly.");
+                        }
+
+                        mChunkDigest.update(mBuffer, 0, numBytesRead);
+                        write(outputStream, fileDigest, numBytesRead);
+                        mFetchedBytes += numBytesRead;
+                        remaining -= numBytesRead;
+                    }
+
+                    if (!CodePushUpdateUtils.getHashString(mChunkDigest.digest()).equals(chunkHashes[i])) {
+                        throw new CodePushInvalidUpdateException("Update is invalid - a chunk downloaded from " + fileUrl + " doesn't match its hash.");
+                    }
+                }
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        return end;
+    }
+
+    private void write(OutputStream outputStream, MessageDigest fileDigest, int length) throws IOException {
+        outputStream.write(mBuffer, 0, length);
+        fileDigest.update(mBuffer, 0, length);
+        mWrittenBytes += length;
+        if (mProgressCallback != null) {
+            mProgressCallback.call(new DownloadProgress(mTotalBytes, mWrittenBytes));
+        }
+    }
+
+    private void closeLocalFiles() throws IOException {
+        for (RandomAccessFile localFile : mOpenLocalFiles.values()) {
+            localFile.close();
+        }
+
+        mOpenLocalFiles.clear();
+    }
+
+    private static MessageDigest getSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CodePushUnknownException("SHA-256 is not supported.", e);
+        }
+    }
+}
@@ -19,6 +19,7 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.lang.reflect.Method;
@@ -44,6 +45,7 @@ public class CodePush implements ReactPackage {
     private CodePushUpdateManager mUpdateManager;
     private CodePushTelemetryManager mTelemetryManager;
     private SettingsManager mSettingsManager;
+    private PackageRetentionManager mRetentionManager;
 
     // Config properties.
     private String mDeploymentKey;
@@ -69,10 +71,12 @@ public class CodePush implements ReactPackage {
         mContext = context.getApplicationContext();
 
         mUpdateManager = new CodePushUpdateManager(context.getFilesDir().getAbsolutePath());
+        mUpdateManager.setBinaryPackage(new BinaryPackage(mContext));
         mTelemetryManager = new CodePushTelemetryManager(mContext);
         mDeploymentKey = deploymentKey;
         mIsDebugMode = isDebugMode;
         mSettingsManager = new SettingsManager(mContext);
+        mRetentionManager = new PackageRetentionManager(mUpdateManager, mSettingsManager);
 
         if (sAppVersion == null) {
             try {
@@ -96,6 +100,12 @@ public class CodePush implements ReactPackage {
         File codePushRoot = new File(context.getFilesDir().getAbsolutePath(), CodePushConstants.CODE_PUSH_FOLDER_PREFIX);
             if (codePushRoot.exists()) {
                 for (String path : codePushRoot.list()) {
+                    // Folders starting with a dot (e.g. the content store) are not path prefixes.
+                    if (path.startsWith(".")) {
+                        continue;
+                    }
+
+                    mUpdateManager.clearStaleFiles(path);
                     initializeUpdateAfterRestart(path);
                 }
             } else {
@@ -285,6 +295,7 @@ public class CodePush implements ReactPackage {
         JSONObject packageMetadata = this.mUpdateManager.getCurrentPackage(pathPrefix);
         if (isPackageBundleLatest(packageMetadata)) {
             CodePushUtils.logBundleUrl(packageFilePath, pathPrefix);
+            mRetentionManager.recordPackageRun(pathPrefix);
             // sIsRunningBinaryVersion = false;
             sIsRunningBinaryVersionArr.put(pathPrefix, false);
             return packageFilePath;
@@ -307,6 +318,53 @@ public class CodePush implements ReactPackage {
         return mServerUrl;
     }
 
+    void setDownloadSegmentCount(int downloadSegmentCount) {
+        mUpdateManager.setDownloadSegmentCount(downloadSegmentCount);
+    }
+
+    void setStreamingExtractionEnabled(boolean isStreamingExtractionEnabled) {
+        mUpdateManager.setStreamingExtractionEnabled(isStreamingExtractionEnabled);
+    }
+
+    void setContentStoreEnabled(boolean isContentStoreEnabled) {
+        mUpdateManager.setContentStoreEnabled(isContentStoreEnabled);
+    }
+
+    void setChunkedDownloadEnabled(boolean isChunkedDownloadEnabled) {
+        mUpdateManager.setChunkedDownloadEnabled(isChunkedDownloadEnabled);
+    }
+
+    void setRetentionPolicy(int maxPackagesPerPathPrefix, long packageStorageBudget) {
+        mRetentionManager.setPolicy(maxPackagesPerPathPrefix, packageStorageBudget);
+        mRetentionManager.evictInBackground();
+    }
+
+    void setArchiveCacheSize(long archiveCacheSize) {
+        mUpdateManager.setArchiveCacheSize(archiveCacheSize);
+    }
+
+    void setTransport(CodePushTransport transport) {
+        mUpdateManager.setTransport(transport);
+    }
+
+    void setDownloadMirrors(String[] mirrorUrls) {
+        mUpdateManager.setDownloadMirrors(Arrays.asList(mirrorUrls));
+    }
+
+    void setSelectiveAssetInstallEnabled(boolean isSelectiveAssetInstallEnabled) {
+        mUpdateManager.setAssetSelector(isSelectiveAssetInstallEnabled ? AssetSelector.forDevice(mContext) : null);
+    }
+
+    void setPreconnectEnabled(boolean isPreconnectEnabled) {
+        if (isPreconnectEnabled) {
+            mUpdateManager.preconnectInBackground(mServerUrl);
+        }
+    }
+
+    void evictPackagesInBackground() {
+        mRetentionManager.evictInBackground();
+    }
+
     void initializeUpdateAfterRestart(String pathPrefix) {
         // Reset the state which indicates that
         // the app was just freshly updated.
@@ -9,6 +9,17 @@ public class CodePushBuilder {
     private boolean mIsDebugMode;
     private String mServerUrl;
     private Integer mPublicKeyResourceDescriptor;
+    private int mDownloadSegmentCount = 1;
+    private boolean mIsStreamingExtractionEnabled = false;
+    private boolean mIsContentStoreEnabled = false;
+    private boolean mIsChunkedDownloadEnabled = false;
+    private int mMaxPackagesPerPathPrefix = 0;
+    private long mPackageStorageBudget = 0;
+    private long mArchiveCacheSize = 0;
+    private CodePushTransport mTransport;
+    private String[] mDownloadMirrorUrls = new String[0];
+    private boolean mIsPreconnectEnabled = false;
+    private boolean mIsSelectiveAssetInstallEnabled = false;
 
     public CodePushBuilder(String deploymentKey, Context context) {
         this.mDeploymentKey = deploymentKey;
@@ -31,7 +42,77 @@ public class CodePushBuilder {
         return this;
     }
 
+    public CodePushBuilder setDownloadSegmentCount(int downloadSegmentCount) {
+        this.mDownloadSegmentCount = downloadSegmentCount;
+        return this;
+    }
+
+    public CodePushBuilder setStreamingExtractionEnabled(boolean isStreamingExtractionEnabled) {
+        this.mIsStreamingExtractionEnabled = isStreamingExtractionEnabled;
+        return this;
+    }
+
+    public CodePushBuilder setContentStoreEnabled(boolean isContentStoreEnabled) {
+        this.mIsContentStoreEnabled = isContentStoreEnabled;
+        return this;
+    }
+
+    public CodePushBuilder setChunkedDownloadEnabled(boolean isChunkedDownloadEnabled) {
+        this.mIsChunkedDownloadEnabled = isChunkedDownloadEnabled;
+        return this;
+    }
+
+    public CodePushBuilder setMaxPackagesPerPathPrefix(int maxPackagesPerPathPrefix) {
+        this.mMaxPackagesPerPathPrefix = maxPackagesPerPathPrefix;
+        return this;
+    }
+
+    public CodePushBuilder setPackageStorageBudget(long packageStorageBudget) {
+        this.mPackageStorageBudget = packageStorageBudget;
+        return this;
+    }
+
+    public CodePushBuilder setArchiveCacheSize(long archiveCacheSize) {
+        this.mArchiveCacheSize = archiveCacheSize;
+        return this;
+    }
+
+    public CodePushBuilder setTransport(CodePushTransport transport) {
+        this.mTransport = transport;
+        return this;
+    }
+
+    public CodePushBuilder setDownloadMirrors(String... mirrorUrls) {
+        this.mDownloadMirrorUrls = mirrorUrls;
+        return this;
+    }
+
+    public CodePushBuilder setPreconnectEnabled(boolean isPreconnectEnabled) {
+        this.mIsPreconnectEnabled = isPreconnectEnabled;
+        return this;
+    }
+
+    public CodePushBuilder setSelectiveAssetInstallEnabled(boolean isSelectiveAssetInstallEnabled) {
+        this.mIsSelectiveAssetInstallEnabled = isSelectiveAssetInstallEnabled;
+        return this;
+    }
+
     public CodePush build() {
-        return new CodePush(this.mDeploymentKey, this.mContext, this.mIsDebugMode, this.mServerUrl, this.mPublicKeyResourceDescriptor);
+        CodePush codePush = new CodePush(this.mDeploymentKey, this.mContext, this.mIsDebugMode, this.mServerUrl, this.mPublicKeyResourceDescriptor);
+        codePush.setDownloadSegmentCount(this.mDownloadSegmentCount);
+        codePush.setStreamingExtractionEnabled(this.mIsStreamingExtractionEnabled);
+        codePush.setContentStoreEnabled(this.mIsContentStoreEnabled);
+        codePush.setChunkedDownloadEnabled(this.mIsChunkedDownloadEnabled);
+        codePush.setRetentionPolicy(this.mMaxPackagesPerPathPrefix, this.mPackageStorageBudget);
+        codePush.setArchiveCacheSize(this.mArchiveCacheSize);
+        if (this.mTransport != null) {
+            codePush.setTransport(this.mTransport);
+        }
+
+        codePush.setDownloadMirrors(this.mDownloadMirrorUrls);
+        codePush.setSelectiveAssetInstallEnabled(this.mIsSelectiveAssetInstallEnabled);
+        // Connects through the transport and to the mirrors set above.
+        codePush.setPreconnectEnabled(this.mIsPreconnectEnabled);
+        return codePush;
     }
 }
@@ -1,22 +1,43 @@
 package com.microsoft.codepush.react;
 
 public class CodePushConstants {
+    public static final String ARCHIVE_CACHE_FOLDER_NAME = ".archives";
+    public static final String ASSET_INDEX_FILE_NAME = "codepushassetindex.json";
     public static final String ASSETS_BUNDLE_PREFIX = "assets://";
     public static final String BINARY_MODIFIED_TIME_KEY = "binaryModifiedTime";
+    public static final String CHUNK_MANIFEST_URL_SUFFIX = ".chunks.json";
+    public static final String CODE_PUSH_BINARY_MANIFEST_FILE_NAME = "CodePushBinaryManifest";
     public static final String CODE_PUSH_FOLDER_PREFIX = "CodePush";
     public static final String CODE_PUSH_HASH_FILE_NAME = "CodePushHash";
     public static final String CODE_PUSH_OLD_HASH_FILE_NAME = "CodePushHash.json";
     public static final String CODE_PUSH_PREFERENCES = "CodePush";
+    public static final String CONTENT_STORE_FOLDER_NAME = ".store";
     public static final String CURRENT_PACKAGE_KEY = "currentPackage";
     public static final String DEFAULT_JS_BUNDLE_NAME = "index.android.bundle";
     public static final String DIFF_MANIFEST_FILE_NAME = "hotcodepush.json";
+    public static final long DISK_SPACE_PREFLIGHT_SKIP_FACTOR = 10;
+    public static final long DISK_SPACE_SAFETY_MARGIN = 1024 * 1024;
     public static final int DOWNLOAD_BUFFER_SIZE = 1024 * 256;
     public static final String DOWNLOAD_FILE_NAME = "download.zip";
+    public static final long DOWNLOAD_SEGMENT_MIN_SIZE = 1024 * 1024;
     public static final String DOWNLOAD_PROGRESS_EVENT_NAME = "CodePushDownloadProgress";
+    public static final String DOWNLOAD_STATE_FILE_NAME = "download.json";
+    public static final String DOWNLOAD_STATE_ETAG_KEY = "etag";
+    public static final String DOWNLOAD_STATE_LAST_MODIFIED_KEY = "lastModified";
+    public static final String DOWNLOAD_STATE_RECEIVED_BYTES_KEY = "receivedBytes";
     public static final String DOWNLOAD_URL_KEY = "downloadUrl";
     public static final String FAILED_UPDATES_KEY = "CODE_PUSH_FAILED_UPDATES";
+    public static final String FULL_DOWNLOAD_URL_KEY = "fullDownloadUrl";
+    public static final String IS_BINARY_PACKAGE_KEY = "isBinaryPackage";
+    public static final long LAST_RUN_TIME_RESOLUTION = 24 * 60 * 60 * 1000;
+    public static final String LAST_RUN_TIMES_KEY = "lastRunTimes";
     public static final String PACKAGE_FILE_NAME = "app.json";
     public static final String PACKAGE_HASH_KEY = "packageHash";
+    public static final String PACKAGE_MANIFEST_FILE_NAME = "codepushmanifest.json";
+    public static final String PACKAGE_MANIFEST_HASH_KEY = "hash";
+    public static final String PACKAGE_MANIFEST_LAST_MODIFIED_KEY = "lastModified";
+    public static final String PACKAGE_MANIFEST_SIZE_KEY = "size";
+    public static final String PACKAGE_SIZE_KEY = "packageSize";
     public static final String PENDING_UPDATE_HASH_KEY = "hash";
     public static final String PENDING_UPDATE_IS_LOADING_KEY = "isLoading";
     public static final String PENDING_UPDATE_KEY = "CODE_PUSH_PENDING_UPDATE";
@@ -24,6 +45,7 @@ public class CodePushConstants {
     public static final String REACT_NATIVE_LOG_TAG = "ReactNative";
     public static final String RELATIVE_BUNDLE_PATH_KEY = "bundlePath";
     public static final String STATUS_FILE = "codepush.json";
+    public static final String TRASH_FOLDER_NAME = ".trash";
     public static final String UNZIPPED_FOLDER_NAME = "unzipped";
     public static final String CODE_PUSH_APK_BUILD_TIME_KEY = "CODE_PUSH_APK_BUILD_TIME";
     public static final String BUNDLE_JWT_FILE = ".codepushrelease";
@@ -0,0 +1,7 @@
+package com.microsoft.codepush.react;
+
+public class CodePushInsufficientStorageException extends RuntimeException {
+    public CodePushInsufficientStorageException(long requiredBytes, long availableBytes) {
+        super("Not enough storage space to download the update: " + requiredBytes + " bytes are needed, " + availableBytes + " bytes are available.");
+    }
+}
@@ -319,6 +319,14 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
                 try {
                     JSONObject mutableUpdatePackage = CodePushUtils.convertReadableToJsonObject(updatePackage);
                     CodePushUtils.setJSONValueForKey(mutableUpdatePackage, CodePushConstants.BINARY_MODIFIED_TIME_KEY, "" + mCodePush.getBinaryResourcesModifiedTime());
+                    String packageHash = mutableUpdatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
+                    if (packageHash != null && packageHash.equals(mBinaryContentsHash) && CodePushUpdateUtils.isDefaultPathPrefix(pathPrefix)) {
+                        // The update reverts the app to the contents of its binary, which are already here.
+                        mUpdateManager.saveBinaryPackage(mutableUpdatePackage, pathPrefix);
+                        promise.resolve(CodePushUtils.convertJsonObjectToWritable(mUpdateManager.getPackage(packageHash, pathPrefix)));
+                        return null;
+                    }
+
                     mUpdateManager.downloadPackage(mutableUpdatePackage, bundleFileName, new DownloadProgressCallback() {
                         private boolean hasScheduledNextFrame = false;
                         private DownloadProgress latestDownloadProgress = null;
@@ -371,7 +379,7 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
                     CodePushUtils.log(e);
                     mSettingsManager.saveFailedUpdate(CodePushUtils.convertReadableToJsonObject(updatePackage), pathPrefix);
                     promise.reject(e);
-                } catch (IOException | CodePushUnknownException e) {
+                } catch (IOException | CodePushUnknownException | CodePushInsufficientStorageException e) {
                     CodePushUtils.log(e);
                     promise.reject(e);
                 }
@@ -553,6 +561,9 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
                         mSettingsManager.savePendingUpdate(pendingHash, /* isLoading */false, pathPrefix);
                     }
 
+                    // The new package is pinned as pending from here on, so older ones can go.
+                    mCodePush.evictPackagesInBackground();
+
                     if (installMode == CodePushInstallMode.ON_NEXT_RESUME.getValue() ||
                         // We also add the resume listener if the installMode is IMMEDIATE, because
                         // if the current activity is backgrounded, we want to reload the bundle when
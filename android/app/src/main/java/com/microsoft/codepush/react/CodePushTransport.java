@@ -0,0 +1,21 @@
+package com.microsoft.codepush.react;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the connections that update packages are downloaded through.
+ *
+ * The default transport uses the platform's HttpURLConnection. Apps that already run an HTTP client
+ * of their own, e.g. OkHttp through its URL connection bridge, can provide a transport backed by it
+ * to share its connection pool, protocols and configuration with CodePush.
+ */
+public interface CodePushTransport {
+
+  /**
+   * Returns a new, not yet connected, connection to the given URL. CodePush sets the request
+   * headers it needs, reads the response and disconnects it.
+   */
+  HttpURLConnection openConnection(URL url) throws IOException;
+}
@@ -1,29 +1,103 @@
 package com.microsoft.codepush.react;
 
-import android.os.Build;
-
 import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.ByteBuffer;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class CodePushUpdateManager {
 
+    // Empties the trash folder on a single low priority thread shared by all instances, so that sweeps
+    // never run concurrently.
+    private static final ExecutorService sTrashSweeper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CodePushTrashSweeper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
     private String mDocumentsDirectory;
+    private int mDownloadSegmentCount = 1;
+    private boolean mIsStreamingExtractionEnabled = false;
+    private boolean mIsContentStoreEnabled = false;
+    private boolean mIsChunkedDownloadEnabled = false;
+    private long mArchiveCacheSize = 0;
+    private CodePushTransport mTransport = new DefaultTransport();
+    private DownloadMirrors mDownloadMirrors;
+    private BinaryPackage mBinaryPackage;
+    private AssetSelector mAssetSelector;
+    // Folders of the packages downloaded by this process that are not installed yet. The app can still
+    // install them, so they are not deleted.
+    private final Set<String> mUninstalledPackageFolderPaths = new HashSet<>();
+    // Number of downloads in progress by path prefix. They may read any package of their path prefix,
+    // so none of those are deleted meanwhile.
+    private final Map<String, Integer> mDownloadCounts = new HashMap<>();
 
     public CodePushUpdateManager(String documentsDirectory) {
         mDocumentsDirectory = documentsDirectory;
     }
 
+    public void setDownloadSegmentCount(int downloadSegmentCount) {
+        mDownloadSegmentCount = Math.max(1, downloadSegmentCount);
+    }
+
+    public void setStreamingExtractionEnabled(boolean isStreamingExtractionEnabled) {
+        mIsStreamingExtractionEnabled = isStreamingExtractionEnabled;
+    }
+
+    public void setContentStoreEnabled(boolean isContentStoreEnabled) {
+        mIsContentStoreEnabled = isContentStoreEnabled;
+    }
+
+    void setBinaryPackage(BinaryPackage binaryPackage) {
+        mBinaryPackage = binaryPackage;
+    }
+
+    public void setChunkedDownloadEnabled(boolean isChunkedDownloadEnabled) {
+        mIsChunkedDownloadEnabled = isChunkedDownloadEnabled;
+    }
+
+    public void setArchiveCacheSize(long archiveCacheSize) {
+        mArchiveCacheSize = Math.max(0, archiveCacheSize);
+    }
+
+    public void setTransport(CodePushTransport transport) {
+        mTransport = transport;
+    }
+
+    public void setAssetSelector(AssetSelector assetSelector) {
+        mAssetSelector = assetSelector;
+    }
+
+    public void setDownloadMirrors(List<String> mirrorUrls) {
+        mDownloadMirrors = mirrorUrls.isEmpty() ? null : new DownloadMirrors(mirrorUrls);
+    }
+
     private String getDownloadFilePath(String pathPrefix) {
         return CodePushUtils.appendPathComponent(getCodePushPath(pathPrefix), CodePushConstants.DOWNLOAD_FILE_NAME);
     }
@@ -48,10 +122,192 @@ public class CodePushUpdateManager {
 //        return codePushPath;
     }
 
+    // The store is shared by all path prefixes so that they can share files.
+    private String getContentStorePath() {
+        String codePushPath = CodePushUtils.appendPathComponent(getDocumentsDirectory(), CodePushConstants.CODE_PUSH_FOLDER_PREFIX);
+        return CodePushUtils.appendPathComponent(codePushPath, CodePushConstants.CONTENT_STORE_FOLDER_NAME);
+    }
+
+    // The archive cache is outside of the path prefix folders so that it survives clearUpdates.
+    private String getArchiveCachePath() {
+        String codePushPath = CodePushUtils.appendPathComponent(getDocumentsDirectory(), CodePushConstants.CODE_PUSH_FOLDER_PREFIX);
+        return CodePushUtils.appendPathComponent(codePushPath, CodePushConstants.ARCHIVE_CACHE_FOLDER_NAME);
+    }
+
+    private String getTrashPath() {
+        String codePushPath = CodePushUtils.appendPathComponent(getDocumentsDirectory(), CodePushConstants.CODE_PUSH_FOLDER_PREFIX);
+        return CodePushUtils.appendPathComponent(codePushPath, CodePushConstants.TRASH_FOLDER_NAME);
+    }
+
+    // Moves the file or folder into the trash folder, which is a single rename, and lets the sweeper
+    // delete it in the background. Falls back to deleting it right away if it can't be moved.
+    private void deleteInBackground(String path) {
+        if (path == null) {
+            CodePushUtils.log("deleteInBackground attempted with null path");
+            return;
+        }
+
+        File file = new File(path);
+        if (!file.exists()) {
+            return;
+        }
+
+        File trashFolder = new File(getTrashPath());
+        trashFolder.mkdirs();
+        if (!file.renameTo(new File(trashFolder, UUID.randomUUID().toString()))) {
+            FileUtils.deleteFileOrFolderSilently(file);
+        }
+
+        sweepTrash();
+    }
+
+    private void sweepTrash() {
+        final String trashPath = getTrashPath();
+        final String contentStorePath = getContentStorePath();
+        sTrashSweeper.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] trashedFiles = new File(trashPath).listFiles();
+                if (trashedFiles != null) {
+                    for (File trashedFile : trashedFiles) {
+                        FileUtils.deleteFileOrFolderSilently(trashedFile);
+                    }
+                }
+
+                // Stored files are only unused once the packages linking to them are really gone.
+                ContentStore.collectGarbage(contentStorePath);
+            }
+        });
+    }
+
+    // Removes what a download or install that was interrupted by the app being killed may have left
+    // behind. Partial downloads that can be resumed are kept.
+    public void clearStaleFiles(String pathPrefix) {
+        deleteInBackground(getUnzippedFolderPath(pathPrefix));
+        if (!FileUtils.fileAtPathExists(getDownloadStateFilePath(pathPrefix))) {
+            deleteInBackground(getDownloadFilePath(pathPrefix));
+        }
+
+        // Also takes care of anything left in the trash by the previous run.
+        sweepTrash();
+    }
+
     private String getStatusFilePath(String pathPrefix) {
         return CodePushUtils.appendPathComponent(getCodePushPath(pathPrefix), CodePushConstants.STATUS_FILE);
     }
 
+    private String getDownloadStateFilePath(String pathPrefix) {
+        return CodePushUtils.appendPathComponent(getCodePushPath(pathPrefix), CodePushConstants.DOWNLOAD_STATE_FILE_NAME);
+    }
+
+    private JSONObject getDownloadState(String pathPrefix) {
+        String downloadStateFilePath = getDownloadStateFilePath(pathPrefix);
+        if (!FileUtils.fileAtPathExists(downloadStateFilePath)) {
+            return null;
+        }
+
+        try {
+            return CodePushUtils.getJsonObjectFromFile(downloadStateFilePath);
+        } catch (IOException | CodePushMalformedDataException e) {
+            CodePushUtils.log("Unable to read the state of the previous download: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void clearPartialDownload(String pathPrefix) {
+        new File(getDownloadStateFilePath(pathPrefix)).delete();
+        new File(getDownloadFilePath(pathPrefix)).delete();
+    }
+
+    // Returns the number of bytes of the given package that are already on disk from an interrupted
+    // download, or 0 (after discarding any leftovers) if the download has to start from scratch. The
+    // partial file has to hold exactly the bytes recorded once the download stopped: it holds something
+    // else if the app was killed during the download, before the state was saved.
+    private long getResumableDownloadOffset(String packageHash, String downloadUrl, File downloadFile, String pathPrefix) {
+        JSONObject downloadState = getDownloadState(pathPrefix);
+        boolean isResumable = downloadState != null
+                && downloadFile.exists()
+                && downloadFile.length() > 0
+                && downloadFile.length() == downloadState.optLong(CodePushConstants.DOWNLOAD_STATE_RECEIVED_BYTES_KEY, -1)
+                && packageHash != null
+                && packageHash.equals(downloadState.optString(CodePushConstants.PACKAGE_HASH_KEY, null))
+                && downloadUrl.equals(downloadState.optString(CodePushConstants.DOWNLOAD_URL_KEY, null))
+                && (downloadState.optString(CodePushConstants.DOWNLOAD_STATE_ETAG_KEY, null) != null
+                        || downloadState.optString(CodePushConstants.DOWNLOAD_STATE_LAST_MODIFIED_KEY, null) != null);
+
+        if (!isResumable) {
+            clearPartialDownload(pathPrefix);
+            return 0;
+        }
+
+        return downloadFile.length();
+    }
+
+    static HttpURLConnection openDownloadConnection(CodePushTransport transport, URL downloadUrl) throws IOException {
+        HttpURLConnection connection = transport.openConnection(downloadUrl);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    // Warms up connections to the update server and to the hosts that the current packages and the
+    // mirrors are downloaded from, on a background thread.
+    public void preconnectInBackground(final String serverUrl) {
+        final CodePushTransport transport = mTransport;
+        final DownloadMirrors downloadMirrors = mDownloadMirrors;
+        Preconnector.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<String> urls = new ArrayList<>();
+                urls.add(serverUrl);
+                try {
+                    for (String pathPrefix : getPathPrefixes()) {
+                        JSONObject currentPackage = getCurrentPackage(pathPrefix);
+                        String downloadUrl = currentPackage == null ? null : currentPackage.optString(CodePushConstants.DOWNLOAD_URL_KEY, null);
+                        if (downloadUrl != null) {
+                            urls.add(downloadUrl);
+                        }
+                    }
+                } catch (CodePushMalformedDataException | CodePushUnknownException e) {
+                    // Reported when the bundle of the path prefix is loaded.
+                    CodePushUtils.log(e.getMessage());
+                }
+
+                if (downloadMirrors != null) {
+                    urls.addAll(downloadMirrors.getMirrorUrls());
+                }
+
+                Preconnector.preconnect(transport, urls);
+            }
+        });
+    }
+
+    // Connects to whichever of the package's mirrors responds first, if there are any. Unlike range
+    // requests, requests for the whole package accept compressed responses, which have to be decoded.
+    private HttpURLConnection openPackageConnection(URL downloadUrl) throws IOException {
+        if (mDownloadMirrors == null) {
+            HttpURLConnection connection = openDownloadConnection(mTransport, downloadUrl);
+            connection.setRequestProperty("Accept-Encoding", ContentEncodings.getAcceptEncoding());
+            return connection;
+        }
+
+        return mDownloadMirrors.connect(mTransport, downloadUrl, ContentEncodings.getAcceptEncoding());
+    }
+
+    // Weak validators can't be used with "If-Range", so those are treated as missing.
+    static String getStrongETag(HttpURLConnection connection) {
+        String eTag = connection.getHeaderField("ETag");
+        if (eTag == null || eTag.startsWith("W/")) {
+            return null;
+        }
+
+        return eTag;
+    }
+
+    static boolean isContentRangeStartingAt(HttpURLConnection connection, long offset) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        return contentRange != null && contentRange.trim().startsWith("bytes " + offset + "-");
+    }
+
     public JSONObject getCurrentPackageInfo(String pathPrefix) {
         String statusFilePath = getStatusFilePath(pathPrefix);
         if (!FileUtils.fileAtPathExists(statusFilePath)) {
@@ -92,7 +348,7 @@ public class CodePushUpdateManager {
         }
 
         JSONObject currentPackage = getCurrentPackage(pathPrefix);
-        if (currentPackage == null) {
+        if (currentPackage == null || isBinaryPackage(currentPackage)) {
             return null;
         }
 
@@ -136,6 +392,11 @@ public class CodePushUpdateManager {
         return getPackage(packageHash, pathPrefix);
     }
 
+    // A package that reverts the app to the contents of the binary, saved by saveBinaryPackage.
+    private static boolean isBinaryPackage(JSONObject packageMetadata) {
+        return packageMetadata.optBoolean(CodePushConstants.IS_BINARY_PACKAGE_KEY, false);
+    }
+
     public JSONObject getPackage(String packageHash, String pathPrefix) {
         String folderPath = getPackageFolderPath(packageHash, pathPrefix);
         String packageFilePath = CodePushUtils.appendPathComponent(folderPath, CodePushConstants.PACKAGE_FILE_NAME);
@@ -150,9 +411,46 @@ public class CodePushUpdateManager {
                                 DownloadProgressCallback progressCallback,
                                 String stringPublicKey,
                                 String pathPrefix) throws IOException {
+        updateDownloadCount(pathPrefix, 1);
+        try {
+            downloadAndSavePackage(updatePackage, expectedBundleFileName, progressCallback, stringPublicKey, pathPrefix);
+        } finally {
+            updateDownloadCount(pathPrefix, -1);
+        }
+    }
+
+    private synchronized void updateDownloadCount(String pathPrefix, int delta) {
+        Integer downloadCount = mDownloadCounts.get(pathPrefix);
+        int newDownloadCount = (downloadCount == null ? 0 : downloadCount) + delta;
+        if (newDownloadCount > 0) {
+            mDownloadCounts.put(pathPrefix, newDownloadCount);
+        } else {
+            mDownloadCounts.remove(pathPrefix);
+        }
+    }
+
+    private void downloadAndSavePackage(JSONObject updatePackage, String expectedBundleFileName,
+                                        DownloadProgressCallback progressCallback,
+                                        String stringPublicKey,
+                                        String pathPrefix) throws IOException {
         String newUpdateHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
         String newUpdateFolderPath = getPackageFolderPath(newUpdateHash, pathPrefix);
         String newUpdateMetadataPath = CodePushUtils.appendPathComponent(newUpdateFolderPath, CodePushConstants.PACKAGE_FILE_NAME);
+        if (isPackageDownloaded(newUpdateHash, stringPublicKey, pathPrefix)) {
+            // The same package was downloaded before, e.g. through another deployment, and it is
+            // still intact. Only its metadata is replaced by the one of this update.
+            JSONObject existingPackage = getPackage(newUpdateHash, pathPrefix);
+            String relativeBundlePath = existingPackage.optString(CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, null);
+            if (relativeBundlePath != null) {
+                CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, relativeBundlePath);
+            }
+
+            CodePushUtils.log("Package " + newUpdateHash + " was already downloaded.");
+            addUninstalledPackage(newUpdateFolderPath);
+            CodePushUtils.writeJsonToFile(updatePackage, newUpdateMetadataPath);
+            return;
+        }
+
         if (FileUtils.fileAtPathExists(newUpdateFolderPath)) {
             // This removes any stale data in newPackageFolderPath that could have been left
             // uncleared due to a crash or error during the download or install process.
@@ -160,96 +458,126 @@ public class CodePushUpdateManager {
         }
 
         String downloadUrlString = updatePackage.optString(CodePushConstants.DOWNLOAD_URL_KEY, null);
-        HttpURLConnection connection = null;
-        BufferedInputStream bin = null;
-        FileOutputStream fos = null;
-        BufferedOutputStream bout = null;
-        File downloadFile = null;
-        boolean isZip = false;
+        File downloadFolder = new File(getCodePushPath(pathPrefix));
+        File downloadFile = new File(downloadFolder, CodePushConstants.DOWNLOAD_FILE_NAME);
+        String unzippedFolderPath = getUnzippedFolderPath(pathPrefix);
+        boolean isArchive;
+        boolean isUnzipped = false;
+        boolean isChunkedUpdate = false;
+        // Hashes of the unzipped files, computed while extracting them so that verifying the
+        // update doesn't have to read them back from disk.
+        Map<String, String> unzippedFileHashes = new HashMap<>();
 
-        // Download the file while checking if it is a zip and notifying client of progress.
+        // Download the file while checking if it is an archive and notifying client of progress.
         try {
             URL downloadUrl = new URL(downloadUrlString);
-            connection = (HttpURLConnection) (downloadUrl.openConnection());
-
-            if (android.os.Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP &&
-                downloadUrl.toString().startsWith("https")) {
-                try {
-                    ((HttpsURLConnection)connection).setSSLSocketFactory(new TLSSocketFactory());
-                } catch (Exception e) {
-                    throw new CodePushUnknownException("Error set SSLSocketFactory. ", e);
-                }
-            }
-
-            connection.setRequestProperty("Accept-Encoding", "identity");
-            bin = new BufferedInputStream(connection.getInputStream());
-
-            long totalBytes = connection.getContentLength();
-            long receivedBytes = 0;
-
-            File downloadFolder = new File(getCodePushPath(pathPrefix));
             downloadFolder.mkdirs();
-            downloadFile = new File(downloadFolder, CodePushConstants.DOWNLOAD_FILE_NAME);
-            fos = new FileOutputStream(downloadFile);
-            bout = new BufferedOutputStream(fos, CodePushConstants.DOWNLOAD_BUFFER_SIZE);
-            byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
-            byte[] header = new byte[4];
-
-            int numBytesRead = 0;
-            while ((numBytesRead = bin.read(data, 0, CodePushConstants.DOWNLOAD_BUFFER_SIZE)) >= 0) {
-                if (receivedBytes < 4) {
-                    for (int i = 0; i < numBytesRead; i++) {
-                        int headerOffset = (int) (receivedBytes) + i;
-                        if (headerOffset >= 4) {
-                            break;
-                        }
 
-                        header[headerOffset] = data[i];
-                    }
+            // A previous attempt for this exact package may have left a partial download behind,
+            // in which case we ask the server for the remaining bytes only.
+            long resumeOffset = getResumableDownloadOffset(newUpdateHash, downloadUrlString, downloadFile, pathPrefix);
+            if (resumeOffset == 0 && extractCachedArchive(newUpdateHash, unzippedFolderPath, unzippedFileHashes, progressCallback)) {
+                isArchive = true;
+                isUnzipped = true;
+            } else if (resumeOffset == 0 && mIsChunkedDownloadEnabled
+                    && downloadChunkedPackage(downloadUrl, unzippedFolderPath, unzippedFileHashes, progressCallback, pathPrefix)) {
+                isArchive = true;
+                isUnzipped = true;
+                isChunkedUpdate = true;
+            } else {
+                // Streamed archives are never written to disk, so they can't be cached.
+                boolean isStreamedExtraction = mIsStreamingExtractionEnabled && mArchiveCacheSize == 0;
+                boolean isArchiveKept = resumeOffset > 0 || mDownloadSegmentCount > 1 || !isStreamedExtraction;
+                ensureDiskSpaceForDownload(downloadUrl, updatePackage.optLong(CodePushConstants.PACKAGE_SIZE_KEY, -1),
+                        resumeOffset, isArchiveKept, pathPrefix);
+                if (resumeOffset == 0 && mDownloadSegmentCount > 1
+                        && SegmentedDownloader.download(mTransport, downloadUrl, downloadFile, mDownloadSegmentCount, progressCallback)) {
+                    isArchive = isArchiveDownload(downloadFile);
+                } else if (resumeOffset == 0 && isStreamedExtraction) {
+                    isArchive = downloadAndUnzipInStream(downloadUrl, downloadFile, unzippedFolderPath, unzippedFileHashes, progressCallback);
+                    isUnzipped = isArchive;
+                } else {
+                    downloadFileInSingleStream(downloadUrl, newUpdateHash, resumeOffset, downloadFile, progressCallback, pathPrefix);
+                    isArchive = isArchiveDownload(downloadFile);
                 }
-
-                receivedBytes += numBytesRead;
-                bout.write(data, 0, numBytesRead);
-                progressCallback.call(new DownloadProgress(totalBytes, receivedBytes));
             }
-
-            if (totalBytes != receivedBytes) {
-                throw new CodePushUnknownException("Received " + receivedBytes + " bytes, expected " + totalBytes);
-            }
-
-            isZip = ByteBuffer.wrap(header).getInt() == 0x504b0304;
         } catch (MalformedURLException e) {
             throw new CodePushMalformedDataException(downloadUrlString, e);
-        } finally {
-            try {
-                if (bout != null) bout.close();
-                if (fos != null) fos.close();
-                if (bin != null) bin.close();
-                if (connection != null) connection.disconnect();
-            } catch (IOException e) {
-                throw new CodePushUnknownException("Error closing IO resources.", e);
-            }
         }
 
-        if (isZip) {
+        if (isArchive) {
+            String diffManifestFilePath = CodePushUtils.appendPathComponent(unzippedFolderPath,
+                    CodePushConstants.DIFF_MANIFEST_FILE_NAME);
+
             // Unzip the downloaded file and then delete the zip
-            String unzippedFolderPath = getUnzippedFolderPath(pathPrefix);
-            FileUtils.unzipFile(downloadFile, unzippedFolderPath);
-            FileUtils.deleteFileOrFolderSilently(downloadFile);
+            if (!isUnzipped) {
+                FileUtils.extractArchive(downloadFile, unzippedFolderPath, unzippedFileHashes);
+                // Diff archives only apply to the package they were made against, full ones can be reused.
+                if (mArchiveCacheSize > 0 && !FileUtils.fileAtPathExists(diffManifestFilePath)) {
+                    PackageArchiveCache.put(getArchiveCachePath(), newUpdateHash, downloadFile, mArchiveCacheSize);
+                } else {
+                    FileUtils.deleteFileOrFolderSilently(downloadFile);
+                }
+            }
+
+            // Diff updates carry the asset index of the new package whenever any of its files changed.
+            Set<String> skippedAssetPaths = mAssetSelector == null ? Collections.<String>emptySet()
+                    : CodePushUpdateUtils.getSkippedAssetPaths(unzippedFolderPath, newUpdateHash, mAssetSelector);
 
             // Merge contents with current update based on the manifest
-            String diffManifestFilePath = CodePushUtils.appendPathComponent(unzippedFolderPath,
-                    CodePushConstants.DIFF_MANIFEST_FILE_NAME);
             boolean isDiffUpdate = FileUtils.fileAtPathExists(diffManifestFilePath);
+            Map<String, String> knownFileHashes = unzippedFileHashes;
             if (isDiffUpdate) {
-                String currentPackageFolderPath = getCurrentPackageFolderPath(pathPrefix);
-                CodePushUpdateUtils.copyNecessaryFilesFromCurrentPackage(diffManifestFilePath, currentPackageFolderPath, newUpdateFolderPath);
+                JSONObject currentPackage = getCurrentPackage(pathPrefix);
+                String currentPackageFolderPath = currentPackage == null || isBinaryPackage(currentPackage)
+                        ? null : getCurrentPackageFolderPath(pathPrefix);
+                if (currentPackageFolderPath != null) {
+                    CodePushUpdateUtils.copyNecessaryFilesFromCurrentPackage(diffManifestFilePath, currentPackageFolderPath, newUpdateFolderPath);
+                    CodePushUpdateUtils.applyPatchesFromDiff(diffManifestFilePath, currentPackageFolderPath, unzippedFolderPath, unzippedFileHashes, skippedAssetPaths);
+
+                    // Files carried over from the current package keep the hashes saved when it was
+                    // installed, so only the files from the diff itself need to be hashed.
+                    knownFileHashes = CodePushUpdateUtils.getPackageManifestFileHashes(currentPackageFolderPath);
+                } else {
+                    // The app runs the binary version, so the diff was made against the files it ships with.
+                    // Those are only described for the bundle of the default path prefix.
+                    boolean isBinaryBase = mBinaryPackage != null && CodePushUpdateUtils.isDefaultPathPrefix(pathPrefix);
+                    knownFileHashes = !isBinaryBase ? null : CodePushUpdateUtils.copyNecessaryFilesFromBinary(
+                            diffManifestFilePath, mBinaryPackage, newUpdateFolderPath, unzippedFileHashes.keySet());
+                    if (knownFileHashes == null) {
+                        // Servers that make diffs against the binary can tell where the whole package is, for
+                        // binaries whose files don't match the ones the diff was made against.
+                        String fullDownloadUrl = updatePackage.optString(CodePushConstants.FULL_DOWNLOAD_URL_KEY, null);
+                        if (fullDownloadUrl == null || fullDownloadUrl.equals(downloadUrlString)) {
+                            throw new CodePushInvalidUpdateException("Update is invalid - it is a diff update but neither a current package nor the binary's files are available to apply it to.");
+                        }
+
+                        CodePushUtils.log("The binary's files can't be the base of the diff update, downloading the whole package.");
+                        FileUtils.deleteFileOrFolderSilently(new File(unzippedFolderPath));
+                        FileUtils.deleteDirectoryAtPath(newUpdateFolderPath);
+                        CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.DOWNLOAD_URL_KEY, fullDownloadUrl);
+                        downloadAndSavePackage(updatePackage, expectedBundleFileName, progressCallback, stringPublicKey, pathPrefix);
+                        return;
+                    }
+
+                    // The copies from the binary are the base of the patches.
+                    CodePushUpdateUtils.applyPatchesFromDiff(diffManifestFilePath, newUpdateFolderPath, unzippedFolderPath, unzippedFileHashes, skippedAssetPaths);
+                }
+
                 File diffManifestFile = new File(diffManifestFilePath);
                 diffManifestFile.delete();
+                knownFileHashes.putAll(unzippedFileHashes);
             }
 
-            FileUtils.copyDirectoryContents(unzippedFolderPath, newUpdateFolderPath);
-            FileUtils.deleteFileAtPathSilently(unzippedFolderPath);
+            // The unzipped folder is on the same file system, so a full update is a single rename
+            // and a diff update only renames its own files into place.
+            FileUtils.moveDirectoryContents(unzippedFolderPath, newUpdateFolderPath);
+            FileUtils.deleteDirectoryAtPath(unzippedFolderPath);
+
+            boolean isFilteredUpdate = mAssetSelector != null && CodePushUpdateUtils.hasAssetIndex(newUpdateFolderPath);
+            if (isFilteredUpdate) {
+                CodePushUpdateUtils.removeSkippedAssets(newUpdateFolderPath, newUpdateHash, mAssetSelector);
+            }
 
             // For zip updates, we need to find the relative path to the jsBundle and save it in the
             // metadata so that we can find and run it easily the next time.
@@ -263,6 +591,11 @@ public class CodePushUpdateManager {
                     metadataFileFromOldUpdate.delete();
                 }
 
+                File manifestFileFromOldUpdate = new File(newUpdateFolderPath, CodePushConstants.PACKAGE_MANIFEST_FILE_NAME);
+                if (manifestFileFromOldUpdate.exists()) {
+                    manifestFileFromOldUpdate.delete();
+                }
+
                 if (isDiffUpdate) {
                     CodePushUtils.log("Applying diff update.");
                 } else {
@@ -270,13 +603,15 @@ public class CodePushUpdateManager {
                 }
 
                 boolean isSignatureVerificationEnabled = (stringPublicKey != null);
+                // Full updates that skip verification still have the hashes from unzipping them.
+                Map<String, String> packageFileHashes = unzippedFileHashes;
 
                 String signaturePath = CodePushUpdateUtils.getSignatureFilePath(newUpdateFolderPath);
                 boolean isSignatureAppearedInBundle = FileUtils.fileAtPathExists(signaturePath);
 
                 if (isSignatureVerificationEnabled) {
                     if (isSignatureAppearedInBundle) {
-                        CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                        packageFileHashes = verifyPackageFolder(newUpdateFolderPath, newUpdateHash, knownFileHashes, isFilteredUpdate);
                         CodePushUpdateUtils.verifyUpdateSignature(newUpdateFolderPath, newUpdateHash, stringPublicKey);
                     } else {
                         throw new CodePushInvalidUpdateException(
@@ -292,14 +627,20 @@ public class CodePushUpdateManager {
                                 "Warning! JWT signature exists in codepush update but code integrity check couldn't be performed because there is no public key configured. " +
                                 "Please ensure that public key is properly configured within your application."
                         );
-                        CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                        packageFileHashes = verifyPackageFolder(newUpdateFolderPath, newUpdateHash, knownFileHashes, isFilteredUpdate);
                     } else {
-                        if (isDiffUpdate) {
-                            CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                        // Rebuilt files were only checked against the chunk manifest, which has to match the package hash too.
+                        if (isDiffUpdate || isChunkedUpdate) {
+                            packageFileHashes = verifyPackageFolder(newUpdateFolderPath, newUpdateHash, knownFileHashes, isFilteredUpdate);
                         }
                     }
                 }
 
+                if (mIsContentStoreEnabled) {
+                    ContentStore.addPackageFiles(getContentStorePath(), newUpdateFolderPath, packageFileHashes);
+                }
+
+                CodePushUpdateUtils.writePackageManifest(newUpdateFolderPath, packageFileHashes);
                 CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, relativeBundlePath);
             }
         } else {
@@ -307,13 +648,524 @@ public class CodePushUpdateManager {
             FileUtils.moveFile(downloadFile, newUpdateFolderPath, expectedBundleFileName);
         }
 
-        // Save metadata to the folder.
+        // Save metadata to the folder. The package is complete from then on, so it is protected first.
+        addUninstalledPackage(newUpdateFolderPath);
         CodePushUtils.writeJsonToFile(updatePackage, newUpdateMetadataPath);
     }
 
-    public void installPackage(JSONObject updatePackage, boolean removePendingUpdate, String pathPrefix) {
+    private synchronized void addUninstalledPackage(String packageFolderPath) {
+        mUninstalledPackageFolderPaths.add(packageFolderPath);
+    }
+
+    private Map<String, String> verifyPackageFolder(String packageFolderPath, String packageHash, Map<String, String> knownFileHashes,
+                                                    boolean isFilteredUpdate) throws IOException {
+        return isFilteredUpdate
+                ? CodePushUpdateUtils.verifyFilteredFolderHash(packageFolderPath, packageHash, knownFileHashes, mAssetSelector)
+                : CodePushUpdateUtils.verifyFolderHash(packageFolderPath, packageHash, knownFileHashes);
+    }
+
+    // Packages downloaded by a previous version of the plugin, or with only a JS bundle, have no
+    // package manifest to check them against and are downloaded again.
+    private boolean isPackageDownloaded(String packageHash, String stringPublicKey, String pathPrefix) {
+        if (packageHash == null) {
+            return false;
+        }
+
+        JSONObject existingPackage = getPackage(packageHash, pathPrefix);
+        String packageFolderPath = getPackageFolderPath(packageHash, pathPrefix);
+        if (existingPackage == null || isBinaryPackage(existingPackage)
+                || !CodePushUpdateUtils.isPackageFolderIntact(packageFolderPath, packageHash, mAssetSelector)) {
+            return false;
+        }
+
+        if (stringPublicKey != null) {
+            // The package may have been downloaded before the public key was configured.
+            if (!FileUtils.fileAtPathExists(CodePushUpdateUtils.getSignatureFilePath(packageFolderPath))) {
+                return false;
+            }
+
+            try {
+                CodePushUpdateUtils.verifyUpdateSignature(packageFolderPath, packageHash, stringPublicKey);
+            } catch (CodePushInvalidUpdateException e) {
+                // Such as after the key was rotated, in which case the download checks the new signature.
+                CodePushUtils.log("Unable to reuse package " + packageHash + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Installing this package runs the JS bundle that the binary ships with, so nothing is downloaded.
+    public void saveBinaryPackage(JSONObject updatePackage, String pathPrefix) throws IOException {
+        String packageHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
+        String packageFolderPath = getPackageFolderPath(packageHash, pathPrefix);
+        if (FileUtils.fileAtPathExists(packageFolderPath)) {
+            FileUtils.deleteDirectoryAtPath(packageFolderPath);
+        }
+
+        new File(packageFolderPath).mkdirs();
+        CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.IS_BINARY_PACKAGE_KEY, true);
+        CodePushUtils.log("Package " + packageHash + " has the contents of the binary.");
+        CodePushUtils.writeJsonToFile(updatePackage, CodePushUtils.appendPathComponent(packageFolderPath, CodePushConstants.PACKAGE_FILE_NAME));
+    }
+
+    // Unzips the cached archive of the package, if there is one and its contents still have the
+    // package's hash. Otherwise the archive is dropped and the package has to be downloaded.
+    private boolean extractCachedArchive(String packageHash, String unzippedFolderPath, Map<String, String> unzippedFileHashes,
+                                         DownloadProgressCallback progressCallback) {
+        if (mArchiveCacheSize == 0 || packageHash == null) {
+            return false;
+        }
+
+        File archive = PackageArchiveCache.get(getArchiveCachePath(), packageHash);
+        if (archive == null) {
+            return false;
+        }
+
+        try {
+            FileUtils.extractArchive(archive, unzippedFolderPath, unzippedFileHashes);
+            CodePushUpdateUtils.verifyFolderHash(unzippedFolderPath, packageHash, unzippedFileHashes);
+        } catch (IOException | CodePushInvalidUpdateException e) {
+            CodePushUtils.log("Unable to use the cached archive of package " + packageHash + ": " + e.getMessage());
+            PackageArchiveCache.remove(getArchiveCachePath(), packageHash);
+            FileUtils.deleteFileOrFolderSilently(new File(unzippedFolderPath));
+            unzippedFileHashes.clear();
+            return false;
+        }
+
+        CodePushUtils.log("Using the cached archive of package " + packageHash + ".");
+        long archiveSize = archive.length();
+        progressCallback.call(new DownloadProgress(archiveSize, archiveSize));
+        return true;
+    }
+
+    // Rebuilds the package from the chunk manifest published next to it, once there is room for its files.
+    // Returns false if the package has no usable chunk manifest.
+    private boolean downloadChunkedPackage(URL downloadUrl, String unzippedFolderPath, Map<String, String> unzippedFileHashes,
+                                           DownloadProgressCallback progressCallback, String pathPrefix) throws IOException {
+        ChunkedDownloader chunkedDownloader = ChunkedDownloader.create(mTransport, ChunkedDownloader.getManifestUrl(downloadUrl),
+                getLocalPackageFolderPaths(pathPrefix), mAssetSelector, progressCallback);
+        if (chunkedDownloader == null) {
+            return false;
+        }
+
+        ensureDiskSpace(chunkedDownloader.getRequiredBytes(), pathPrefix);
+        chunkedDownloader.download(unzippedFolderPath, unzippedFileHashes);
+        return true;
+    }
+
+    // Fails with CodePushInsufficientStorageException before anything is downloaded if the package
+    // can't fit on the device, after trying to free up some space.
+    private void ensureDiskSpaceForDownload(URL downloadUrl, long packageSize, long resumeOffset, boolean isArchiveKept, String pathPrefix) {
+        // The size in the update metadata is enough to tell that most downloads fit, with room to spare
+        // for the extracted files, without asking the server for anything.
+        if (packageSize > 0 && DiskSpacePreflight.getAvailableBytes(getCodePushPath(pathPrefix))
+                >= packageSize * CodePushConstants.DISK_SPACE_PREFLIGHT_SKIP_FACTOR + CodePushConstants.DISK_SPACE_SAFETY_MARGIN) {
+            return;
+        }
+
+        long requiredBytes;
+        try {
+            // The preflight only makes small requests, they go to the mirror that was fastest so far.
+            URL preflightUrl = mDownloadMirrors == null || resumeOffset > 0 ? downloadUrl : mDownloadMirrors.getCandidateUrls(downloadUrl).get(0);
+            requiredBytes = DiskSpacePreflight.estimateRequiredBytes(mTransport, preflightUrl, resumeOffset, isArchiveKept, getCurrentPackageFolderPath(pathPrefix));
+        } catch (IOException e) {
+            // The download itself will report the problem if there is one.
+            CodePushUtils.log("Unable to estimate the storage space needed for " + downloadUrl + ": " + e.getMessage());
+            return;
+        }
+
+        if (requiredBytes >= 0) {
+            ensureDiskSpace(requiredBytes, pathPrefix);
+        }
+    }
+
+    private void ensureDiskSpace(long requiredBytes, String pathPrefix) {
+        requiredBytes += CodePushConstants.DISK_SPACE_SAFETY_MARGIN;
+        String codePushPath = getCodePushPath(pathPrefix);
+        long availableBytes = DiskSpacePreflight.getAvailableBytes(codePushPath);
+        if (availableBytes >= requiredBytes) {
+            return;
+        }
+
+        CodePushUtils.log("Only " + availableBytes + " bytes are available, " + requiredBytes + " bytes are needed. Emptying the trash.");
+        sweepTrash();
+        try {
+            // The sweeper runs one task at a time, so once this no-op runs the sweep is done.
+            sTrashSweeper.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            CodePushUtils.log(e);
+        }
+
+        availableBytes = DiskSpacePreflight.getAvailableBytes(codePushPath);
+        if (availableBytes < requiredBytes) {
+            throw new CodePushInsufficientStorageException(requiredBytes, availableBytes);
+        }
+    }
+
+    // Tells whether the downloaded package is an archive. Packages compressed without a tar archive inside
+    // are a jsbundle compressed on its own, which is decompressed in place.
+    private static boolean isArchiveDownload(File downloadFile) throws IOException {
+        byte[] header = new byte[4];
+        FileUtils.readFileHeader(downloadFile, header);
+        if (!TarExtractor.isCompressedHeader(header)) {
+            return FileUtils.isZipHeader(header);
+        } else if (TarExtractor.isCompressedTarFile(downloadFile)) {
+            return true;
+        }
+
+        TarExtractor.decompressFile(downloadFile);
+        return false;
+    }
+
+    private void downloadFileInSingleStream(URL downloadUrl, String packageHash, long resumeOffset, File downloadFile,
+                                               DownloadProgressCallback progressCallback, String pathPrefix) throws IOException {
+        String downloadUrlString = downloadUrl.toString();
+        HttpURLConnection connection = null;
+        BufferedInputStream bin = null;
+        FileOutputStream fos = null;
+        BufferedOutputStream bout = null;
+        JSONObject downloadState = null;
+        boolean discardPartialDownload = false;
+        long receivedBytes = 0;
+        long totalBytes = 0;
+
+        try {
+            // Partial downloads are resumed from the URL they were started with.
+            connection = resumeOffset > 0 ? openDownloadConnection(mTransport, downloadUrl) : openPackageConnection(downloadUrl);
+            if (resumeOffset > 0) {
+                JSONObject previousState = getDownloadState(pathPrefix);
+                String validator = previousState.optString(CodePushConstants.DOWNLOAD_STATE_ETAG_KEY, null);
+                if (validator == null) {
+                    validator = previousState.optString(CodePushConstants.DOWNLOAD_STATE_LAST_MODIFIED_KEY, null);
+                }
+
+                connection.setRequestProperty("Range", "bytes=" + resumeOffset + "-");
+                connection.setRequestProperty("If-Range", validator);
+                if (connection.getResponseCode() == 416) {
+                    // The partial file no longer matches what the server has, start over.
+                    CodePushUtils.log("Unable to resume download of " + packageHash + ", restarting it.");
+                    connection.disconnect();
+                    clearPartialDownload(pathPrefix);
+                    resumeOffset = 0;
+                    connection = openPackageConnection(downloadUrl);
+                }
+            }
+
+            // Compressed responses are decoded on the fly. Their progress is reported in bytes received over
+            // the wire, and they can't be resumed because the partial file holds decoded bytes.
+            String contentEncoding = ContentEncodings.getContentEncoding(connection);
+            DownloadProgressInputStream encodedStream = null;
+            if (contentEncoding == null) {
+                bin = new BufferedInputStream(connection.getInputStream());
+            } else {
+                encodedStream = new DownloadProgressInputStream(connection.getInputStream(), connection.getContentLength(), progressCallback);
+                bin = new BufferedInputStream(ContentEncodings.decode(encodedStream, contentEncoding), CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+            }
+
+            // The server is free to ignore "Range" and send the whole package back with a 200.
+            boolean isResumed = resumeOffset > 0 && connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+            if (isResumed && !isContentRangeStartingAt(connection, resumeOffset)) {
+                clearPartialDownload(pathPrefix);
+                throw new CodePushUnknownException("Server returned an unexpected range while resuming the download of " + packageHash + ".");
+            }
+
+            if (resumeOffset > 0 && !isResumed) {
+                CodePushUtils.log("Server does not support resuming the download of " + packageHash + ", restarting it.");
+            }
+
+            if (isResumed) {
+                CodePushUtils.log("Resuming download of " + packageHash + " from byte " + resumeOffset + ".");
+                receivedBytes = resumeOffset;
+            }
+
+            totalBytes = connection.getContentLength();
+            if (isResumed && totalBytes >= 0) {
+                totalBytes += resumeOffset;
+            }
+
+            if (encodedStream == null) {
+                downloadState = new JSONObject();
+                CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.PACKAGE_HASH_KEY, packageHash);
+                CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_URL_KEY, downloadUrlString);
+                CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_STATE_ETAG_KEY, getStrongETag(connection));
+                CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_STATE_LAST_MODIFIED_KEY, connection.getHeaderField("Last-Modified"));
+                CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_STATE_RECEIVED_BYTES_KEY, receivedBytes);
+                CodePushUtils.writeJsonToFile(downloadState, getDownloadStateFilePath(pathPrefix));
+            }
+
+            fos = new FileOutputStream(downloadFile, isResumed);
+            bout = new BufferedOutputStream(fos, CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+            byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+
+            int numBytesRead = 0;
+            while ((numBytesRead = bin.read(data, 0, CodePushConstants.DOWNLOAD_BUFFER_SIZE)) >= 0) {
+                receivedBytes += numBytesRead;
+                bout.write(data, 0, numBytesRead);
+                if (encodedStream == null) {
+                    progressCallback.call(new DownloadProgress(totalBytes, receivedBytes));
+                }
+            }
+
+            if (encodedStream != null) {
+                // The decoder has checked the length of the decoded package, only the encoded one is left.
+                checkEncodedLength(encodedStream, totalBytes, progressCallback);
+            } else if (totalBytes != receivedBytes) {
+                // Receiving more than announced means the partial file can't be trusted anymore.
+                discardPartialDownload = totalBytes >= 0 && receivedBytes > totalBytes;
+                throw new CodePushUnknownException("Received " + receivedBytes + " bytes, expected " + totalBytes);
+            }
+
+            discardPartialDownload = true;
+        } finally {
+            try {
+                if (bout != null) bout.close();
+                if (fos != null) fos.close();
+                if (bin != null) bin.close();
+                if (connection != null) connection.disconnect();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+
+            if (discardPartialDownload) {
+                new File(getDownloadStateFilePath(pathPrefix)).delete();
+            } else if (downloadState != null) {
+                // Remember how far we got so that the next attempt can pick up from here.
+                CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_STATE_RECEIVED_BYTES_KEY, receivedBytes);
+                try {
+                    CodePushUtils.writeJsonToFile(downloadState, getDownloadStateFilePath(pathPrefix));
+                } catch (IOException e) {
+                    CodePushUtils.log("Unable to save the state of the interrupted download: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Reads what the decoder left of an encoded response, then checks that all of it was received. Encoded
+    // responses are often sent without a length, in which case the completion is reported here.
+    // Keeps the network stream open when an extractor closes the decoder that reads from it, so that the
+    // rest of the encoded data can still be read and counted.
+    private static class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void checkEncodedLength(DownloadProgressInputStream encodedStream, long totalBytes,
+                                           DownloadProgressCallback progressCallback) throws IOException {
+        byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+        while (encodedStream.read(data) >= 0) {
+            // Skip the padding after the encoded data, if any.
+        }
+
+        long receivedBytes = encodedStream.getReceivedBytes();
+        if (totalBytes < 0) {
+            progressCallback.call(new DownloadProgress(receivedBytes, receivedBytes));
+        } else if (totalBytes != receivedBytes) {
+            throw new CodePushUnknownException("Received " + receivedBytes + " bytes, expected " + totalBytes);
+        }
+    }
+
+    // Extracts zip and compressed tar packages straight from the network stream instead of writing them to disk first,
+    // which saves a full pass over the package and the space of the archive. Such downloads can't be
+    // resumed. Plain jsbundles, compressed on their own or not, are written decompressed to downloadFile.
+    private boolean downloadAndUnzipInStream(URL downloadUrl, File downloadFile, String unzippedFolderPath,
+                                             Map<String, String> unzippedFileHashes,
+                                             DownloadProgressCallback progressCallback) throws IOException {
+        HttpURLConnection connection = null;
+        DownloadProgressInputStream pin = null;
+        BufferedInputStream bin = null;
+        FileOutputStream fos = null;
+        boolean isArchive;
+        try {
+            connection = openPackageConnection(downloadUrl);
+            long totalBytes = connection.getContentLength();
+            pin = new DownloadProgressInputStream(connection.getInputStream(), totalBytes, progressCallback);
+            String contentEncoding = ContentEncodings.getContentEncoding(connection);
+            bin = new BufferedInputStream(ContentEncodings.decode(new NonClosingInputStream(pin), contentEncoding),
+                    CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+
+            byte[] header = new byte[4];
+            bin.mark(header.length);
+            int headerLength = 0;
+            int numBytesRead;
+            while (headerLength < header.length && (numBytesRead = bin.read(header, headerLength, header.length - headerLength)) > 0) {
+                headerLength += numBytesRead;
+            }
+
+            bin.reset();
+            if (TarExtractor.isCompressedHeader(header)) {
+                isArchive = TarExtractor.extractStream(bin, unzippedFolderPath, unzippedFileHashes, downloadFile);
+            } else if (FileUtils.isZipHeader(header)) {
+                isArchive = true;
+                FileUtils.unzipStream(bin, unzippedFolderPath, unzippedFileHashes);
+            } else {
+                isArchive = false;
+                fos = new FileOutputStream(downloadFile);
+                byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+                while ((numBytesRead = bin.read(data, 0, CodePushConstants.DOWNLOAD_BUFFER_SIZE)) >= 0) {
+                    fos.write(data, 0, numBytesRead);
+                }
+            }
+
+            if (contentEncoding != null) {
+                checkEncodedLength(pin, totalBytes, progressCallback);
+            } else if (totalBytes != pin.getReceivedBytes()) {
+                throw new CodePushUnknownException("Received " + pin.getReceivedBytes() + " bytes, expected " + totalBytes);
+            }
+        } finally {
+            try {
+                if (fos != null) fos.close();
+                if (bin != null) bin.close();
+                if (pin != null) pin.close();
+                if (connection != null) connection.disconnect();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+
+        return isArchive;
+    }
+
+    // Path prefixes are the folders under CodePush, apart from the dot folders shared by all of them.
+    public List<String> getPathPrefixes() {
+        List<String> pathPrefixes = new ArrayList<>();
+        String codePushPath = CodePushUtils.appendPathComponent(getDocumentsDirectory(), CodePushConstants.CODE_PUSH_FOLDER_PREFIX);
+        File[] files = new File(codePushPath).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && !file.getName().startsWith(".")) {
+                    pathPrefixes.add(file.getName());
+                }
+            }
+        }
+
+        return pathPrefixes;
+    }
+
+    // Returns the hashes of all package folders of the path prefix, including those of packages that
+    // are still being downloaded.
+    public List<String> getPackageHashes(String pathPrefix) {
+        List<String> packageHashes = new ArrayList<>();
+        File[] files = new File(getCodePushPath(pathPrefix)).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && !file.getName().startsWith(".")
+                        && !file.getName().equals(CodePushConstants.UNZIPPED_FOLDER_NAME)) {
+                    packageHashes.add(file.getName());
+                }
+            }
+        }
+
+        return packageHashes;
+    }
+
+    // The current package comes first, as it is the most likely to share content with the next one.
+    private List<String> getLocalPackageFolderPaths(String pathPrefix) {
+        List<String> packageFolderPaths = new ArrayList<>();
+        String currentPackageHash = getCurrentPackageHash(pathPrefix);
+        if (currentPackageHash != null && isPackageComplete(currentPackageHash, pathPrefix)) {
+            packageFolderPaths.add(getPackageFolderPath(currentPackageHash, pathPrefix));
+        }
+
+        for (String packageHash : getPackageHashes(pathPrefix)) {
+            if (!packageHash.equals(currentPackageHash) && isPackageComplete(packageHash, pathPrefix)) {
+                packageFolderPaths.add(getPackageFolderPath(packageHash, pathPrefix));
+            }
+        }
+
+        return packageFolderPaths;
+    }
+
+    public boolean isPackageComplete(String packageHash, String pathPrefix) {
+        String folderPath = getPackageFolderPath(packageHash, pathPrefix);
+        return FileUtils.fileAtPathExists(CodePushUtils.appendPathComponent(folderPath, CodePushConstants.PACKAGE_FILE_NAME));
+    }
+
+    // Remembers when the current package was last run, for the retention policy to evict the packages
+    // that were used least recently first.
+    public synchronized void recordPackageRun(String pathPrefix) {
+        JSONObject info = getCurrentPackageInfo(pathPrefix);
+        String currentPackageHash = info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null);
+        if (currentPackageHash == null) {
+            return;
+        }
+
+        // Eviction only needs to know which packages ran recently, so the time is kept to the day
+        // rather than written on every start.
+        long now = System.currentTimeMillis();
+        JSONObject previousLastRunTimes = info.optJSONObject(CodePushConstants.LAST_RUN_TIMES_KEY);
+        if (previousLastRunTimes != null
+                && Math.abs(now - previousLastRunTimes.optLong(currentPackageHash, 0)) < CodePushConstants.LAST_RUN_TIME_RESOLUTION) {
+            return;
+        }
+
+        JSONObject lastRunTimes = new JSONObject();
+        if (previousLastRunTimes != null) {
+            Iterator<String> packageHashes = previousLastRunTimes.keys();
+            while (packageHashes.hasNext()) {
+                String packageHash = packageHashes.next();
+                // Times of deleted packages are dropped so that they don't pile up.
+                if (FileUtils.fileAtPathExists(getPackageFolderPath(packageHash, pathPrefix))) {
+                    CodePushUtils.setJSONValueForKey(lastRunTimes, packageHash, previousLastRunTimes.optLong(packageHash));
+                }
+            }
+        }
+
+        CodePushUtils.setJSONValueForKey(lastRunTimes, currentPackageHash, now);
+        CodePushUtils.setJSONValueForKey(info, CodePushConstants.LAST_RUN_TIMES_KEY, lastRunTimes);
+        updateCurrentPackageInfo(info, pathPrefix);
+    }
+
+    // Packages that never ran count as used when they were downloaded.
+    public long getPackageLastRunTime(String packageHash, String pathPrefix) {
+        JSONObject lastRunTimes = getCurrentPackageInfo(pathPrefix).optJSONObject(CodePushConstants.LAST_RUN_TIMES_KEY);
+        long lastRunTime = lastRunTimes != null ? lastRunTimes.optLong(packageHash, 0) : 0;
+        if (lastRunTime > 0) {
+            return lastRunTime;
+        }
+
+        String folderPath = getPackageFolderPath(packageHash, pathPrefix);
+        return new File(CodePushUtils.appendPathComponent(folderPath, CodePushConstants.PACKAGE_FILE_NAME)).lastModified();
+    }
+
+    // Deletes a package that isn't the current one, nor one this process downloaded and didn't install
+    // yet, unless a download of its path prefix is in progress. Rollbacks fall back to the binary once
+    // the previous package is gone.
+    public synchronized boolean deletePackage(String packageHash, String pathPrefix) {
+        JSONObject info = getCurrentPackageInfo(pathPrefix);
+        String packageFolderPath = getPackageFolderPath(packageHash, pathPrefix);
+        if (packageHash.equals(info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null))
+                || mUninstalledPackageFolderPaths.contains(packageFolderPath) || mDownloadCounts.containsKey(pathPrefix)) {
+            return false;
+        }
+
+        if (packageHash.equals(info.optString(CodePushConstants.PREVIOUS_PACKAGE_KEY, null))) {
+            CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, null);
+            updateCurrentPackageInfo(info, pathPrefix);
+        }
+
+        deleteInBackground(packageFolderPath);
+        return true;
+    }
+
+    public synchronized void installPackage(JSONObject updatePackage, boolean removePendingUpdate, String pathPrefix) {
         String packageHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
         JSONObject info = getCurrentPackageInfo(pathPrefix);
+        if (packageHash != null) {
+            mUninstalledPackageFolderPaths.remove(getPackageFolderPath(packageHash, pathPrefix));
+        }
 
         String currentPackageHash = info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null);
         if (packageHash != null && packageHash.equals(currentPackageHash)) {
@@ -324,12 +1176,12 @@ public class CodePushUpdateManager {
         if (removePendingUpdate) {
             String currentPackageFolderPath = getCurrentPackageFolderPath(pathPrefix);
             if (currentPackageFolderPath != null) {
-                FileUtils.deleteDirectoryAtPath(currentPackageFolderPath);
+                deleteInBackground(currentPackageFolderPath);
             }
         } else {
             String previousPackageHash = getPreviousPackageHash(pathPrefix);
             if (previousPackageHash != null && !previousPackageHash.equals(packageHash)) {
-                FileUtils.deleteDirectoryAtPath(getPackageFolderPath(previousPackageHash, pathPrefix));
+                deleteInBackground(getPackageFolderPath(previousPackageHash, pathPrefix));
             }
 
             CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null));
@@ -339,16 +1191,22 @@ public class CodePushUpdateManager {
         updateCurrentPackageInfo(info, pathPrefix);
     }
 
-    public void rollbackPackage(String pathPrefix) {
+    public synchronized void rollbackPackage(String pathPrefix) {
         JSONObject info = getCurrentPackageInfo(pathPrefix);
         String currentPackageFolderPath = getCurrentPackageFolderPath(pathPrefix);
-        FileUtils.deleteDirectoryAtPath(currentPackageFolderPath);
+        deleteInBackground(currentPackageFolderPath);
         CodePushUtils.setJSONValueForKey(info, CodePushConstants.CURRENT_PACKAGE_KEY, info.optString(CodePushConstants.PREVIOUS_PACKAGE_KEY, null));
         CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, null);
         updateCurrentPackageInfo(info, pathPrefix);
     }
 
     public void downloadAndReplaceCurrentBundle(String remoteBundleUrl, String bundleFileName, String pathPrefix) throws IOException {
+        // Packages saved by saveBinaryPackage run the bundle of the binary, which can't be replaced.
+        String currentBundlePath = getCurrentPackageBundlePath(bundleFileName, pathPrefix);
+        if (currentBundlePath == null) {
+            throw new CodePushUnknownException("Unable to replace the current bundle, the app is running the bundle of its binary.");
+        }
+
         URL downloadUrl;
         HttpURLConnection connection = null;
         BufferedInputStream bin = null;
@@ -356,9 +1214,10 @@ public class CodePushUpdateManager {
         BufferedOutputStream bout = null;
         try {
             downloadUrl = new URL(remoteBundleUrl);
-            connection = (HttpURLConnection) (downloadUrl.openConnection());
-            bin = new BufferedInputStream(connection.getInputStream());
-            File downloadFile = new File(getCurrentPackageBundlePath(bundleFileName, pathPrefix));
+            connection = mTransport.openConnection(downloadUrl);
+            connection.setRequestProperty("Accept-Encoding", ContentEncodings.getAcceptEncoding());
+            bin = new BufferedInputStream(ContentEncodings.decode(connection.getInputStream(), ContentEncodings.getContentEncoding(connection)));
+            File downloadFile = new File(currentBundlePath);
             downloadFile.delete();
             fos = new FileOutputStream(downloadFile);
             bout = new BufferedOutputStream(fos, CodePushConstants.DOWNLOAD_BUFFER_SIZE);
@@ -382,6 +1241,6 @@ public class CodePushUpdateManager {
     }
 
     public void clearUpdates(String pathPrefix) {
-        FileUtils.deleteDirectoryAtPath(getCodePushPath(pathPrefix));
+        deleteInBackground(getCodePushPath(pathPrefix));
     }
 }
@@ -16,7 +16,6 @@ import org.json.JSONObject;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.DigestInputStream;
@@ -27,7 +26,12 @@ import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class CodePushUpdateUtils {
 
@@ -47,7 +51,12 @@ public class CodePushUpdateUtils {
                 || relativeFilePath.endsWith("/" + CODEPUSH_METADATA);
     }
 
-    private static void addContentsOfFolderToManifest(String folderPath, String pathPrefix, ArrayList<String> manifest) {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Files that still have to be hashed are added to filesToHash so that the caller can hash them
+    // all at once with computeFileHashes.
+    private static void addContentsOfFolderToManifest(String folderPath, String pathPrefix, ArrayList<String> manifest,
+                                                      Map<String, String> knownFileHashes, Map<String, File> filesToHash) {
         File folder = new File(folderPath);
         File[] folderFiles = folder.listFiles();
         for (File file : folderFiles) {
@@ -60,16 +69,60 @@ public class CodePushUpdateUtils {
             }
 
             if (file.isDirectory()) {
-                addContentsOfFolderToManifest(fullFilePath, relativePath, manifest);
+                addContentsOfFolderToManifest(fullFilePath, relativePath, manifest, knownFileHashes, filesToHash);
+            } else if (knownFileHashes != null && knownFileHashes.containsKey(relativePath)) {
+                manifest.add(relativePath + ":" + knownFileHashes.get(relativePath));
             } else {
-                try {
-                    manifest.add(relativePath + ":" + computeHash(new FileInputStream(file)));
-                } catch (FileNotFoundException e) {
-                    // Should not happen.
-                    throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
+                filesToHash.put(relativePath, file);
+            }
+        }
+    }
+
+    // Hashes the given files on the shared worker pool, each thread reusing its own digest and buffer
+    // for all the files it hashes.
+    private static Map<String, String> computeFileHashes(Map<String, File> files) {
+        final String[] relativePaths = files.keySet().toArray(new String[files.size()]);
+        final File[] fileArray = files.values().toArray(new File[files.size()]);
+        final String[] hashes = new String[fileArray.length];
+        try {
+            FileUtils.runInParallel(fileArray.length, new FileUtils.ParallelTask() {
+                @Override
+                public FileUtils.ParallelWorker createWorker() throws NoSuchAlgorithmException {
+                    final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+                    final byte[] byteBuffer = new byte[1024 * 8];
+                    return new FileUtils.ParallelWorker() {
+                        @Override
+                        public void process(int index) throws IOException {
+                            hashes[index] = computeFileHash(fileArray[index], messageDigest, byteBuffer);
+                        }
+                    };
                 }
+            });
+        } catch (IOException e) {
+            throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
+        }
+
+        Map<String, String> fileHashes = new HashMap<>();
+        for (int i = 0; i < relativePaths.length; i++) {
+            fileHashes.put(relativePaths[i], hashes[i]);
+        }
+
+        return fileHashes;
+    }
+
+    private static String computeFileHash(File file, MessageDigest messageDigest, byte[] byteBuffer) throws IOException {
+        messageDigest.reset();
+        FileInputStream fileStream = new FileInputStream(file);
+        try {
+            int numBytesRead;
+            while ((numBytesRead = fileStream.read(byteBuffer)) != -1) {
+                messageDigest.update(byteBuffer, 0, numBytesRead);
             }
+        } finally {
+            fileStream.close();
         }
+
+        return getHashString(messageDigest.digest());
     }
 
     private static String computeHash(InputStream dataStream) {
@@ -92,22 +145,110 @@ public class CodePushUpdateUtils {
             }
         }
 
-        byte[] hash = messageDigest.digest();
-        return String.format("%064x", new java.math.BigInteger(1, hash));
+        return getHashString(messageDigest.digest());
     }
 
-    public static void copyNecessaryFilesFromCurrentPackage(String diffManifestFilePath, String currentPackageFolderPath, String newPackageFolderPath) throws IOException {
-        FileUtils.copyDirectoryContents(currentPackageFolderPath, newPackageFolderPath);
+    static String getHashString(byte[] hash) {
+        char[] hashChars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hashChars[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+            hashChars[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0f];
+        }
+
+        return new String(hashChars);
+    }
+
+    // Applies the VCDIFF patches listed under "patchedFiles" in the diff manifest, as objects with the
+    // "path" of the file in the package and the "patch" file in the diff, to the files of the current
+    // package. The patched files replace the patches in the unzipped folder, and in unzippedFileHashes.
+    // Patches of skippedPaths are dropped, the current package may not have the files they apply to.
+    public static void applyPatchesFromDiff(String diffManifestFilePath, String currentPackageFolderPath, String unzippedFolderPath,
+                                            Map<String, String> unzippedFileHashes, Set<String> skippedPaths) throws IOException {
         JSONObject diffManifest = CodePushUtils.getJsonObjectFromFile(diffManifestFilePath);
+        JSONArray patchedFiles = diffManifest.optJSONArray("patchedFiles");
+        if (patchedFiles == null || patchedFiles.length() == 0) {
+            return;
+        }
+
+        if (currentPackageFolderPath == null) {
+            throw new CodePushInvalidUpdateException("Update is invalid - it contains patches but there is no current package to apply them to.");
+        }
+
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CodePushUnknownException("SHA-256 is not supported.", e);
+        }
+
         try {
-            JSONArray deletedFiles = diffManifest.getJSONArray("deletedFiles");
-            for (int i = 0; i < deletedFiles.length(); i++) {
-                String fileNameToDelete = deletedFiles.getString(i);
-                File fileToDelete = new File(newPackageFolderPath, fileNameToDelete);
-                if (fileToDelete.exists()) {
-                    fileToDelete.delete();
+            for (int i = 0; i < patchedFiles.length(); i++) {
+                JSONObject patchedFile = patchedFiles.getJSONObject(i);
+                String relativePath = ZipExtractor.getRelativePath(patchedFile.getString("path"));
+                String relativePatchPath = ZipExtractor.getRelativePath(patchedFile.getString("patch"));
+                File sourceFile = new File(currentPackageFolderPath, relativePath);
+                File patchFile = new File(unzippedFolderPath, relativePatchPath);
+                if (skippedPaths.contains(relativePath)) {
+                    patchFile.delete();
+                    patchFile.getParentFile().delete();
+                    unzippedFileHashes.remove(relativePatchPath);
+                    continue;
+                }
+
+                if (relativePath.equals(relativePatchPath) || !sourceFile.isFile() || !patchFile.isFile()) {
+                    throw new CodePushInvalidUpdateException("Update is invalid - the patch for \"" + relativePath + "\" can't be applied to the current package.");
                 }
+
+                File targetFile = new File(unzippedFolderPath, relativePath);
+                targetFile.getParentFile().mkdirs();
+                messageDigest.reset();
+                VcdiffDecoder.decode(sourceFile, patchFile, targetFile, messageDigest);
+                patchFile.delete();
+                // Leaves no empty folder behind if the patches had their own.
+                patchFile.getParentFile().delete();
+                unzippedFileHashes.remove(relativePatchPath);
+                unzippedFileHashes.put(relativePath, getHashString(messageDigest.digest()));
             }
+        } catch (JSONException e) {
+            throw new CodePushUnknownException("Unable to apply patches from diff update", e);
+        }
+    }
+
+    public static void copyNecessaryFilesFromCurrentPackage(String diffManifestFilePath, String currentPackageFolderPath, String newPackageFolderPath) throws IOException {
+        // The current package's files are linked rather than copied. Nothing writes to package files
+        // in place, files from the diff replace the links (see FileUtils.moveDirectoryContents).
+        FileUtils.linkDirectoryContents(currentPackageFolderPath, newPackageFolderPath);
+        for (String fileNameToDelete : getDeletedFiles(diffManifestFilePath)) {
+            File fileToDelete = new File(newPackageFolderPath, fileNameToDelete);
+            if (fileToDelete.exists()) {
+                fileToDelete.delete();
+            }
+        }
+    }
+
+    // Does the same as copyNecessaryFilesFromCurrentPackage for an app running the binary version,
+    // with the files of the binary package. Files that the diff deletes or replaces are not copied.
+    // Returns the hashes of the copied files, or null if the binary doesn't list its files.
+    public static Map<String, String> copyNecessaryFilesFromBinary(String diffManifestFilePath, BinaryPackage binaryPackage,
+                                                                  String newPackageFolderPath, Set<String> diffFilePaths) throws IOException {
+        Set<String> excludedPaths = new HashSet<>(diffFilePaths);
+        for (String deletedFile : getDeletedFiles(diffManifestFilePath)) {
+            excludedPaths.add(ZipExtractor.getRelativePath(deletedFile));
+        }
+
+        return binaryPackage.copyContents(newPackageFolderPath, excludedPaths);
+    }
+
+    private static List<String> getDeletedFiles(String diffManifestFilePath) throws IOException {
+        JSONObject diffManifest = CodePushUtils.getJsonObjectFromFile(diffManifestFilePath);
+        try {
+            List<String> deletedFiles = new ArrayList<>();
+            JSONArray deletedFilesArray = diffManifest.getJSONArray("deletedFiles");
+            for (int i = 0; i < deletedFilesArray.length(); i++) {
+                deletedFiles.add(deletedFilesArray.getString(i));
+            }
+
+            return deletedFiles;
         } catch (JSONException e) {
             throw new CodePushUnknownException("Unable to copy files from current package during diff update", e);
         }
@@ -151,14 +292,193 @@ public class CodePushUpdateUtils {
         }
     }
 
+    // The binary contents hash only covers the bundle of the default path prefix, CodePush.getJSBundleFile().
+    public static boolean isDefaultPathPrefix(String pathPrefix) {
+        return pathPrefix == null || pathPrefix.isEmpty();
+    }
+
     // Hashing algorithm:
     // 1. Recursively generate a sorted array of format <relativeFilePath>: <sha256FileHash>
     // 2. JSON stringify the array
     // 3. SHA256-hash the result
     public static void verifyFolderHash(String folderPath, String expectedHash) {
+        verifyFolderHash(folderPath, expectedHash, null);
+    }
+
+    // knownFileHashes holds hashes of files (keyed by their path relative to folderPath) that were
+    // already computed while the files were written, e.g. during unzip. The folder is still listed so
+    // the manifest covers exactly what is on disk, but those files are not read again.
+    // Returns the hashes of all the files that make up the manifest.
+    public static Map<String, String> verifyFolderHash(String folderPath, String expectedHash, Map<String, String> knownFileHashes) {
         CodePushUtils.log("Verifying hash for folder path: " + folderPath);
+        Map<String, String> manifestFileHashes = getFolderFileHashes(folderPath, knownFileHashes);
+        ArrayList<String> updateContentsManifest = new ArrayList<>();
+        for (Map.Entry<String, String> fileHash : manifestFileHashes.entrySet()) {
+            updateContentsManifest.add(fileHash.getKey() + ":" + fileHash.getValue());
+        }
+
+        String updateContentsManifestHash = computeManifestHash(updateContentsManifest, true);
+
+        CodePushUtils.log("Expected hash: " + expectedHash + ", actual hash: " + updateContentsManifestHash);
+        if (!expectedHash.equals(updateContentsManifestHash)) {
+            throw new CodePushInvalidUpdateException("The update contents failed the data integrity check.");
+        }
+
+        CodePushUtils.log("The update contents succeeded the data integrity check.");
+        return manifestFileHashes;
+    }
+
+    // Tells whether a downloaded package folder still holds exactly the contents of the package with
+    // the given hash, using the hashes saved in its package manifest. Files that changed since they
+    // were hashed are not read again, the folder is simply not considered intact.
+    // Packages installed without the assets the device doesn't use are checked against their asset index
+    // when an assetSelector is given.
+    public static boolean isPackageFolderIntact(String packageFolderPath, String expectedHash, AssetSelector assetSelector) {
+        Map<String, String> knownFileHashes = getPackageManifestFileHashes(packageFolderPath);
+        if (knownFileHashes.isEmpty()) {
+            return false;
+        }
+
+        ArrayList<String> updateContentsManifest = new ArrayList<>();
+        Map<String, File> filesToHash = new HashMap<>();
+        addContentsOfFolderToManifest(packageFolderPath, "", updateContentsManifest, knownFileHashes, filesToHash);
+        // The package's metadata is written after its contents are verified, it is not part of the hash.
+        filesToHash.remove(CodePushConstants.PACKAGE_FILE_NAME);
+        filesToHash.remove(CodePushConstants.PACKAGE_MANIFEST_FILE_NAME);
+        if (!filesToHash.isEmpty()) {
+            return false;
+        }
+
+        if (assetSelector != null && hasAssetIndex(packageFolderPath)) {
+            Map<String, String> fileHashes = new HashMap<>();
+            for (String manifestEntry : updateContentsManifest) {
+                int separatorIndex = manifestEntry.lastIndexOf(':');
+                fileHashes.put(manifestEntry.substring(0, separatorIndex), manifestEntry.substring(separatorIndex + 1));
+            }
+
+            try {
+                return matchesAssetIndex(fileHashes, getVerifiedAssetIndex(packageFolderPath, expectedHash), assetSelector);
+            } catch (IOException | CodePushInvalidUpdateException e) {
+                return false;
+            }
+        }
+
+        return expectedHash.equals(computeManifestHash(updateContentsManifest, false));
+    }
+
+    public static boolean hasAssetIndex(String packageFolderPath) {
+        return new File(packageFolderPath, CodePushConstants.ASSET_INDEX_FILE_NAME).isFile();
+    }
+
+    // Returns the paths of the files that the device doesn't use, as chosen by assetSelector out of the files
+    // listed in the package's asset index, or an empty set if there is no asset index in the folder.
+    public static Set<String> getSkippedAssetPaths(String packageFolderPath, String expectedHash, AssetSelector assetSelector) throws IOException {
+        if (!hasAssetIndex(packageFolderPath)) {
+            return Collections.emptySet();
+        }
+
+        return assetSelector.getSkippedPaths(getVerifiedAssetIndex(packageFolderPath, expectedHash).keySet());
+    }
+
+    public static void removeSkippedAssets(String packageFolderPath, String expectedHash, AssetSelector assetSelector) throws IOException {
+        int removedFileCount = 0;
+        long removedByteCount = 0;
+        for (String skippedPath : getSkippedAssetPaths(packageFolderPath, expectedHash, assetSelector)) {
+            File skippedFile = new File(packageFolderPath, skippedPath);
+            long fileSize = skippedFile.length();
+            if (skippedFile.isFile() && skippedFile.delete()) {
+                removedFileCount++;
+                removedByteCount += fileSize;
+                // Only deletes the folder if it has no files left.
+                skippedFile.getParentFile().delete();
+            }
+        }
+
+        CodePushUtils.log("Removed " + removedFileCount + " files (" + removedByteCount + " bytes) that the device doesn't use.");
+    }
+
+    // Does what verifyFolderHash does, for packages whose unused assets were removed: every file in the folder
+    // has to have the hash listed in the asset index, and only the files the device doesn't use may be missing.
+    public static Map<String, String> verifyFilteredFolderHash(String folderPath, String expectedHash, Map<String, String> knownFileHashes,
+                                                               AssetSelector assetSelector) throws IOException {
+        CodePushUtils.log("Verifying hash for folder path: " + folderPath + ", against its asset index");
+        Map<String, String> assetIndex = getVerifiedAssetIndex(folderPath, expectedHash);
+        Map<String, String> fileHashes = getFolderFileHashes(folderPath, knownFileHashes);
+        if (!matchesAssetIndex(fileHashes, assetIndex, assetSelector)) {
+            throw new CodePushInvalidUpdateException("The update contents failed the data integrity check.");
+        }
+
+        CodePushUtils.log("The update contents succeeded the data integrity check.");
+        return fileHashes;
+    }
+
+    // The asset index lists the manifest entries ("<relativeFilePath>:<sha256FileHash>") of all the files
+    // of the package other than itself, so the package hash is the hash of these entries together with the
+    // index's own. Returns the listed file hashes keyed by path once the index matches the package hash.
+    private static Map<String, String> getVerifiedAssetIndex(String packageFolderPath, String expectedHash) throws IOException {
+        File assetIndexFile = new File(packageFolderPath, CodePushConstants.ASSET_INDEX_FILE_NAME);
         ArrayList<String> updateContentsManifest = new ArrayList<>();
-        addContentsOfFolderToManifest(folderPath, "", updateContentsManifest);
+        Map<String, String> assetIndex = new HashMap<>();
+        try {
+            JSONArray assetIndexEntries = new JSONArray(FileUtils.readFileToString(assetIndexFile.getPath()));
+            for (int i = 0; i < assetIndexEntries.length(); i++) {
+                String manifestEntry = assetIndexEntries.getString(i);
+                int separatorIndex = manifestEntry.lastIndexOf(':');
+                String relativePath = separatorIndex > 0 ? manifestEntry.substring(0, separatorIndex) : "";
+                // The paths are used to delete files before the package is verified, they can't point elsewhere.
+                if (relativePath.isEmpty() || !relativePath.equals(ZipExtractor.getRelativePath(relativePath))) {
+                    throw new CodePushInvalidUpdateException("Update is invalid - its asset index lists the invalid path \"" + relativePath + "\".");
+                }
+
+                updateContentsManifest.add(manifestEntry);
+                assetIndex.put(relativePath, manifestEntry.substring(separatorIndex + 1));
+            }
+        } catch (JSONException | IllegalStateException e) {
+            throw new CodePushInvalidUpdateException("Update is invalid - unable to read its asset index: " + e.getMessage());
+        }
+
+        updateContentsManifest.add(CodePushConstants.ASSET_INDEX_FILE_NAME + ":" + computeHash(new FileInputStream(assetIndexFile)));
+        if (!expectedHash.equals(computeManifestHash(updateContentsManifest, false))) {
+            throw new CodePushInvalidUpdateException("The update contents failed the data integrity check.");
+        }
+
+        return assetIndex;
+    }
+
+    private static boolean matchesAssetIndex(Map<String, String> fileHashes, Map<String, String> assetIndex, AssetSelector assetSelector) {
+        for (Map.Entry<String, String> fileHash : fileHashes.entrySet()) {
+            if (!fileHash.getKey().equals(CodePushConstants.ASSET_INDEX_FILE_NAME)
+                    && !fileHash.getValue().equals(assetIndex.get(fileHash.getKey()))) {
+                return false;
+            }
+        }
+
+        Set<String> skippedPaths = assetSelector.getSkippedPaths(assetIndex.keySet());
+        for (String relativePath : assetIndex.keySet()) {
+            if (!fileHashes.containsKey(relativePath) && !skippedPaths.contains(relativePath)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Returns the hashes of all the files in the folder that are part of the package hash.
+    private static Map<String, String> getFolderFileHashes(String folderPath, Map<String, String> knownFileHashes) {
+        ArrayList<String> updateContentsManifest = new ArrayList<>();
+        Map<String, File> filesToHash = new HashMap<>();
+        Map<String, String> fileHashes = new HashMap<>();
+        addContentsOfFolderToManifest(folderPath, "", updateContentsManifest, knownFileHashes, filesToHash);
+        for (String manifestEntry : updateContentsManifest) {
+            int separatorIndex = manifestEntry.lastIndexOf(':');
+            fileHashes.put(manifestEntry.substring(0, separatorIndex), manifestEntry.substring(separatorIndex + 1));
+        }
+
+        fileHashes.putAll(computeFileHashes(filesToHash));
+        return fileHashes;
+    }
+
+    private static String computeManifestHash(ArrayList<String> updateContentsManifest, boolean isLogged) {
         //sort manifest strings to make sure, that they are completely equal with manifest strings has been generated in cli!
         Collections.sort(updateContentsManifest);
         JSONArray updateContentsJSONArray = new JSONArray();
@@ -168,16 +488,69 @@ public class CodePushUpdateUtils {
 
         // The JSON serialization turns path separators into "\/", e.g. "CodePush\/assets\/image.png"
         String updateContentsManifestString = updateContentsJSONArray.toString().replace("\\/", "/");
-        CodePushUtils.log("Manifest string: " + updateContentsManifestString);
+        if (isLogged) {
+            CodePushUtils.log("Manifest string: " + updateContentsManifestString);
+        }
 
-        String updateContentsManifestHash = computeHash(new ByteArrayInputStream(updateContentsManifestString.getBytes()));
+        return computeHash(new ByteArrayInputStream(updateContentsManifestString.getBytes()));
+    }
 
-        CodePushUtils.log("Expected hash: " + expectedHash + ", actual hash: " + updateContentsManifestHash);
-        if (!expectedHash.equals(updateContentsManifestHash)) {
-            throw new CodePushInvalidUpdateException("The update contents failed the data integrity check.");
+    // Saves the hashes of a package's files together with their size and modification time, so that
+    // a later diff update can reuse them for the files it carries over from this package.
+    public static void writePackageManifest(String packageFolderPath, Map<String, String> fileHashes) {
+        JSONObject packageManifest = new JSONObject();
+        try {
+            for (Map.Entry<String, String> fileHash : fileHashes.entrySet()) {
+                File file = new File(packageFolderPath, fileHash.getKey());
+                if (!file.isFile()) {
+                    continue;
+                }
+
+                JSONObject manifestEntry = new JSONObject();
+                manifestEntry.put(CodePushConstants.PACKAGE_MANIFEST_HASH_KEY, fileHash.getValue());
+                manifestEntry.put(CodePushConstants.PACKAGE_MANIFEST_SIZE_KEY, file.length());
+                manifestEntry.put(CodePushConstants.PACKAGE_MANIFEST_LAST_MODIFIED_KEY, file.lastModified());
+                packageManifest.put(fileHash.getKey(), manifestEntry);
+            }
+
+            CodePushUtils.writeJsonToFile(packageManifest, CodePushUtils.appendPathComponent(packageFolderPath, CodePushConstants.PACKAGE_MANIFEST_FILE_NAME));
+        } catch (JSONException | IOException e) {
+            // The manifest is only an optimization, the next diff update will hash the files again.
+            CodePushUtils.log("Unable to save the package manifest: " + e.getMessage());
         }
+    }
 
-        CodePushUtils.log("The update contents succeeded the data integrity check.");
+    // Returns the saved hashes of the package's files that still have the size and modification
+    // time they had when they were hashed, or an empty map if the package has no saved manifest.
+    public static Map<String, String> getPackageManifestFileHashes(String packageFolderPath) {
+        Map<String, String> fileHashes = new HashMap<>();
+        if (packageFolderPath == null) {
+            return fileHashes;
+        }
+
+        String packageManifestPath = CodePushUtils.appendPathComponent(packageFolderPath, CodePushConstants.PACKAGE_MANIFEST_FILE_NAME);
+        if (!FileUtils.fileAtPathExists(packageManifestPath)) {
+            return fileHashes;
+        }
+
+        try {
+            JSONObject packageManifest = CodePushUtils.getJsonObjectFromFile(packageManifestPath);
+            Iterator<String> relativePaths = packageManifest.keys();
+            while (relativePaths.hasNext()) {
+                String relativePath = relativePaths.next();
+                JSONObject manifestEntry = packageManifest.getJSONObject(relativePath);
+                File file = new File(packageFolderPath, relativePath);
+                if (file.length() == manifestEntry.getLong(CodePushConstants.PACKAGE_MANIFEST_SIZE_KEY)
+                        && file.lastModified() == manifestEntry.getLong(CodePushConstants.PACKAGE_MANIFEST_LAST_MODIFIED_KEY)) {
+                    fileHashes.put(relativePath, manifestEntry.getString(CodePushConstants.PACKAGE_MANIFEST_HASH_KEY));
+                }
+            }
+        } catch (JSONException | IOException | CodePushMalformedDataException e) {
+            CodePushUtils.log("Unable to read the package manifest: " + e.getMessage());
+            fileHashes.clear();
+        }
+
+        return fileHashes;
     }
 
     public static Map<String, Object> verifyAndDecodeJWT(String jwt, PublicKey publicKey) {
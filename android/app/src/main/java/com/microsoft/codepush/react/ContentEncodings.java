@@ -0,0 +1,98 @@
+package com.microsoft.codepush.react;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+// Decodes the content codings that packages may be sent with. gzip is supported by the platform, while
+// Brotli and Zstandard are only offered if the app ships their decoders, which are looked up by reflection
+// so that the library doesn't depend on them. JS bundles are plain text and compress well, zip archives
+// are left alone by servers that know what they serve.
+class ContentEncodings {
+
+    static final String GZIP = "gzip";
+    private static final String LEGACY_GZIP = "x-gzip";
+    private static final String BROTLI = "br";
+    static final String ZSTD = "zstd";
+    private static final String IDENTITY = "identity";
+    private static final String BROTLI_DECODER_CLASS_NAME = "org.brotli.dec.BrotliInputStream";
+    private static final String ZSTD_DECODER_CLASS_NAME = "com.github.luben.zstd.ZstdInputStream";
+
+    private static String sAcceptEncoding;
+
+    // The value of the Accept-Encoding header for the codings that can be decoded, the most compact first.
+    public static synchronized String getAcceptEncoding() {
+        if (sAcceptEncoding == null) {
+            StringBuilder acceptEncoding = new StringBuilder();
+            if (isClassAvailable(ZSTD_DECODER_CLASS_NAME)) {
+                acceptEncoding.append(ZSTD).append(", ");
+            }
+
+            if (isClassAvailable(BROTLI_DECODER_CLASS_NAME)) {
+                acceptEncoding.append(BROTLI).append(", ");
+            }
+
+            sAcceptEncoding = acceptEncoding.append(GZIP).toString();
+        }
+
+        return sAcceptEncoding;
+    }
+
+    // Update packages may also be tar archives compressed with Zstandard, which need the same decoder.
+    public static boolean isZstdSupported() {
+        return isClassAvailable(ZSTD_DECODER_CLASS_NAME);
+    }
+
+    // Returns null if the response is not encoded.
+    public static String getContentEncoding(HttpURLConnection connection) {
+        String contentEncoding = connection.getHeaderField("Content-Encoding");
+        if (contentEncoding == null) {
+            return null;
+        }
+
+        contentEncoding = contentEncoding.trim().toLowerCase(Locale.US);
+        return contentEncoding.isEmpty() || contentEncoding.equals(IDENTITY) ? null : contentEncoding;
+    }
+
+    // Returns the decoded stream, or the stream itself if contentEncoding is null. The decoders check the
+    // length and checksum that the encoded data carries, so truncated responses fail to decode.
+    public static InputStream decode(InputStream inputStream, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return inputStream;
+        } else if (contentEncoding.equals(GZIP) || contentEncoding.equals(LEGACY_GZIP)) {
+            return new GZIPInputStream(inputStream, CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+        } else if (contentEncoding.equals(BROTLI)) {
+            return createDecoder(BROTLI_DECODER_CLASS_NAME, inputStream);
+        } else if (contentEncoding.equals(ZSTD)) {
+            return createDecoder(ZSTD_DECODER_CLASS_NAME, inputStream);
+        }
+
+        throw new CodePushUnknownException("The package was sent with the unsupported content encoding \"" + contentEncoding + "\".");
+    }
+
+    private static boolean isClassAvailable(String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static InputStream createDecoder(String className, InputStream inputStream) throws IOException {
+        try {
+            return (InputStream) Class.forName(className).getConstructor(InputStream.class).newInstance(inputStream);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new CodePushUnknownException("Unable to create a decoder for the package.", e.getCause());
+        } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+            throw new CodePushUnknownException("Unable to create a decoder for the package.", e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.microsoft.codepush.react;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.util.Map;
+
+// Keeps a single copy of every update file under CodePush/.store, named after its SHA-256, and turns
+// the files of package folders into hard links to it. Identical files are then stored only once across
+// packages and path prefixes. The link count of a stored file tells how many packages still use it, so
+// no separate reference count has to be kept in sync with the package folders.
+class ContentStore {
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    public static boolean isSupported() {
+        // Hard links and link counts are only exposed through android.system.Os from Lollipop on.
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    // Moves the given files of the package into the store, or replaces them with links to the stored
+    // copy if the store already has it. fileHashes maps paths relative to the package folder to the
+    // SHA-256 of their contents, which must have been computed from the files themselves.
+    public static void addPackageFiles(String storePath, String packageFolderPath, Map<String, String> fileHashes) {
+        if (!isSupported()) {
+            return;
+        }
+
+        File storeFolder = new File(storePath);
+        storeFolder.mkdirs();
+        for (Map.Entry<String, String> fileHash : fileHashes.entrySet()) {
+            File file = new File(packageFolderPath, fileHash.getKey());
+            if (!file.isFile()) {
+                continue;
+            }
+
+            File storedFile = new File(storeFolder, fileHash.getValue());
+            try {
+                if (!storedFile.exists()) {
+                    try {
+                        Os.link(file.getAbsolutePath(), storedFile.getAbsolutePath());
+                        continue;
+                    } catch (ErrnoException e) {
+                        // Another package may have stored the same file in the meantime.
+                        if (!storedFile.exists()) {
+                            throw e;
+                        }
+                    }
+                }
+
+                if (Os.stat(file.getAbsolutePath()).st_ino == Os.stat(storedFile.getAbsolutePath()).st_ino) {
+                    // Carried over from a package that is already in the store.
+                    continue;
+                }
+
+                File tempFile = new File(file.getAbsolutePath() + TEMP_FILE_SUFFIX);
+                tempFile.delete();
+                Os.link(storedFile.getAbsolutePath(), tempFile.getAbsolutePath());
+                Os.rename(tempFile.getAbsolutePath(), file.getAbsolutePath());
+            } catch (ErrnoException e) {
+                // The package keeps its own copy of the file, which is still correct.
+                CodePushUtils.log("Unable to add " + file.getAbsolutePath() + " to the content store: " + e.getMessage());
+            }
+        }
+    }
+
+    // Deletes the stored files that are no longer linked from any package folder.
+    public static void collectGarbage(String storePath) {
+        File[] storedFiles = new File(storePath).listFiles();
+        if (storedFiles == null || !isSupported()) {
+            return;
+        }
+
+        int deletedFileCount = 0;
+        for (File storedFile : storedFiles) {
+            try {
+                if (Os.stat(storedFile.getAbsolutePath()).st_nlink <= 1 && storedFile.delete()) {
+                    deletedFileCount++;
+                }
+            } catch (ErrnoException e) {
+                CodePushUtils.log("Unable to check " + storedFile.getAbsolutePath() + " in the content store: " + e.getMessage());
+            }
+        }
+
+        if (deletedFileCount > 0) {
+            CodePushUtils.log("Deleted " + deletedFileCount + " unused files from the content store.");
+        }
+    }
+}
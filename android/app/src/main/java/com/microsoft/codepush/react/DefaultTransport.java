@@ -0,0 +1,41 @@
+package com.microsoft.codepush.react;
+
+import android.os.Build;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+// Opens connections through the platform's HttpURLConnection, which keeps them alive and reuses them
+// for later requests to the same host once their response has been read. Below Lollipop, TLS 1.1 and
+// 1.2 are enabled through a TLSSocketFactory that all connections share, so that its SSL context can
+// resume the TLS sessions of earlier connections instead of making a full handshake every time.
+class DefaultTransport implements CodePushTransport {
+
+    private static SSLSocketFactory sLegacySocketFactory;
+
+    private static synchronized SSLSocketFactory getLegacySocketFactory() {
+        if (sLegacySocketFactory == null) {
+            try {
+                sLegacySocketFactory = new TLSSocketFactory();
+            } catch (Exception e) {
+                throw new CodePushUnknownException("Error set SSLSocketFactory. ", e);
+            }
+        }
+
+        return sLegacySocketFactory;
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) (url.openConnection());
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(getLegacySocketFactory());
+        }
+
+        return connection;
+    }
+}
@@ -0,0 +1,165 @@
+package com.microsoft.codepush.react;
+
+import android.os.Build;
+import android.os.StatFs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Estimates how much storage downloadPackage will need before anything is downloaded, from the size
+// of the package and the uncompressed sizes listed in its zip central directory. The size comes from a
+// HEAD request, and only the end of the package is fetched, with range requests to servers that
+// advertise them.
+class DiskSpacePreflight {
+
+    // Files take up whole blocks, so each extracted file is assumed to waste up to one of them.
+    static final long FILE_SYSTEM_BLOCK_SIZE = 4 * 1024;
+    // Larger central directories are not worth fetching up front, the estimate then only covers the
+    // download itself.
+    private static final long MAX_CENTRAL_DIRECTORY_SIZE = 4 * 1024 * 1024;
+
+    // Returns the number of bytes needed to download and install the package, or -1 if the server
+    // doesn't tell the size of the package.
+    public static long estimateRequiredBytes(CodePushTransport transport, URL downloadUrl, long resumeOffset, boolean isArchiveKept,
+                                             String currentPackageFolderPath) throws IOException {
+        long packageSize = -1;
+        // Servers that don't answer HEAD requests are asked for the range anyway.
+        boolean isRangeSupported = true;
+        byte[] tail = null;
+        HttpURLConnection connection = CodePushUpdateManager.openDownloadConnection(transport, downloadUrl);
+        try {
+            connection.setRequestMethod("HEAD");
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                packageSize = connection.getContentLength();
+                isRangeSupported = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        // A server that ignores the range would send the whole package, which we don't want yet.
+        if (isRangeSupported) {
+            connection = CodePushUpdateManager.openDownloadConnection(transport, downloadUrl);
+            try {
+                connection.setRequestProperty("Range", "bytes=-" + ZipExtractor.MAX_END_OF_CENTRAL_DIRECTORY_SIZE);
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+                    if (packageSize < 0) {
+                        packageSize = getTotalSize(connection);
+                    }
+
+                    tail = readBody(connection);
+                } else if (packageSize < 0) {
+                    packageSize = connection.getContentLength();
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        if (packageSize < 0) {
+            return -1;
+        }
+
+        long requiredBytes = isArchiveKept ? packageSize - resumeOffset : 0;
+        ZipExtractor.CentralDirectory centralDirectory = tail != null && tail.length > 0
+                ? ZipExtractor.findCentralDirectory(ByteBuffer.wrap(tail), packageSize)
+                : null;
+        if (centralDirectory == null || centralDirectory.size > MAX_CENTRAL_DIRECTORY_SIZE) {
+            // A plain jsbundle is moved into place once downloaded, it needs no extra space.
+            return requiredBytes;
+        }
+
+        List<ZipExtractor.Entry> entries = ZipExtractor.readEntries(
+                ByteBuffer.wrap(fetchRange(transport, downloadUrl, tail, packageSize, centralDirectory.offset, centralDirectory.size)),
+                centralDirectory.entryCount);
+        if (entries == null) {
+            return requiredBytes;
+        }
+
+        boolean isDiffUpdate = false;
+        for (ZipExtractor.Entry entry : entries) {
+            requiredBytes += entry.size + FILE_SYSTEM_BLOCK_SIZE;
+            isDiffUpdate |= entry.name.equals(CodePushConstants.DIFF_MANIFEST_FILE_NAME);
+        }
+
+        // Diff updates hard link the current package's files where they can, and copy them otherwise.
+        if (isDiffUpdate && currentPackageFolderPath != null && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            requiredBytes += FileUtils.getFolderSize(new File(currentPackageFolderPath), FILE_SYSTEM_BLOCK_SIZE);
+        }
+
+        return requiredBytes;
+    }
+
+    public static long getAvailableBytes(String path) {
+        StatFs statFs = new StatFs(path);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return statFs.getAvailableBytes();
+        }
+
+        return (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+    }
+
+    // Returns the requested bytes of the package, from the tail that was already fetched if possible.
+    private static byte[] fetchRange(CodePushTransport transport, URL downloadUrl, byte[] tail, long packageSize, long offset, long length) throws IOException {
+        long tailOffset = packageSize - tail.length;
+        if (offset >= tailOffset) {
+            byte[] data = new byte[(int) length];
+            System.arraycopy(tail, (int) (offset - tailOffset), data, 0, (int) length);
+            return data;
+        }
+
+        HttpURLConnection connection = CodePushUpdateManager.openDownloadConnection(transport, downloadUrl);
+        try {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                    || !CodePushUpdateManager.isContentRangeStartingAt(connection, offset)) {
+                throw new IOException("Server returned an unexpected range for " + downloadUrl + ".");
+            }
+
+            byte[] data = readBody(connection);
+            if (data.length != length) {
+                throw new IOException("Received " + data.length + " bytes, expected " + length);
+            }
+
+            return data;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Parses the total size out of a "Content-Range: bytes <first>-<last>/<total>" header.
+    private static long getTotalSize(HttpURLConnection connection) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] readBody(HttpURLConnection connection) throws IOException {
+        InputStream inputStream = connection.getInputStream();
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int numBytesRead;
+            while ((numBytesRead = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, numBytesRead);
+            }
+
+            return body.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
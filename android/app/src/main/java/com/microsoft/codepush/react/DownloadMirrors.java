@@ -0,0 +1,202 @@
+package com.microsoft.codepush.react;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Downloads packages from whichever of their mirrors responds first. A mirror serves the download URL's
+// path and query under its own base URL. Mirrors are asked in order of the time to first byte they had
+// in earlier downloads, and the next one is asked as well whenever those already asked take longer than
+// the hedge delay to respond or fail. As soon as one of them responds, the requests to the others are
+// cancelled.
+class DownloadMirrors {
+
+    static final long HEDGE_DELAY_MILLIS = 1000;
+    // Time to first byte assumed for hosts whose last request failed, so that they are asked last.
+    private static final long FAILURE_LATENCY_MILLIS = 60 * 1000;
+
+    private static final ExecutorService sRequestExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CodePushMirrorRequest");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Smoothed time to first byte of every host that was asked for a package, in milliseconds. Hosts
+    // that were never asked are assumed to respond within the hedge delay.
+    private static final Map<String, Long> sHostLatencies = new HashMap<>();
+
+    private static final Comparator<URL> FASTEST_HOST_FIRST = new Comparator<URL>() {
+        @Override
+        public int compare(URL lhs, URL rhs) {
+            long lhsLatency = getHostLatency(lhs);
+            long rhsLatency = getHostLatency(rhs);
+            return lhsLatency == rhsLatency ? 0 : (lhsLatency < rhsLatency ? -1 : 1);
+        }
+    };
+
+    private final List<String> mMirrorUrls;
+
+    public DownloadMirrors(List<String> mirrorUrls) {
+        mMirrorUrls = new ArrayList<>(mirrorUrls);
+    }
+
+    public List<String> getMirrorUrls() {
+        return mMirrorUrls;
+    }
+
+    private static synchronized long getHostLatency(URL url) {
+        Long latency = sHostLatencies.get(url.getAuthority());
+        return latency == null ? HEDGE_DELAY_MILLIS : latency;
+    }
+
+    private static synchronized void recordHostLatency(URL url, long latency) {
+        Long previousLatency = sHostLatencies.get(url.getAuthority());
+        sHostLatencies.put(url.getAuthority(), previousLatency == null || latency >= FAILURE_LATENCY_MILLIS
+                ? latency : (3 * previousLatency + latency) / 4);
+    }
+
+    // Returns the download URL and its counterparts on every mirror, the fastest ones first.
+    List<URL> getCandidateUrls(URL downloadUrl) throws MalformedURLException {
+        List<URL> candidateUrls = new ArrayList<>();
+        List<String> candidateUrlStrings = new ArrayList<>();
+        candidateUrls.add(downloadUrl);
+        candidateUrlStrings.add(downloadUrl.toString());
+        for (String mirrorUrl : mMirrorUrls) {
+            String baseUrl = mirrorUrl.endsWith("/") ? mirrorUrl.substring(0, mirrorUrl.length() - 1) : mirrorUrl;
+            String candidateUrlString = baseUrl + downloadUrl.getFile();
+            if (!candidateUrlStrings.contains(candidateUrlString)) {
+                candidateUrls.add(new URL(candidateUrlString));
+                candidateUrlStrings.add(candidateUrlString);
+            }
+        }
+
+        Collections.sort(candidateUrls, FASTEST_HOST_FIRST);
+        return candidateUrls;
+    }
+
+    // Returns the connection of the first candidate that responded with a success, its response headers
+    // already read. If none did, returns the first response that was received so that the caller can
+    // handle its status, or throws the first failure if there was no response at all.
+    public HttpURLConnection connect(CodePushTransport transport, URL downloadUrl, String acceptEncoding) throws IOException {
+        List<URL> candidateUrls = getCandidateUrls(downloadUrl);
+        CompletionService<HttpURLConnection> completionService = new ExecutorCompletionService<>(sRequestExecutor);
+        List<HttpURLConnection> openConnections = new ArrayList<>();
+        boolean[] isDecided = new boolean[1];
+        HttpURLConnection result = null;
+        IOException firstError = null;
+        int startedRequestCount = 0;
+        int finishedRequestCount = 0;
+        try {
+            completionService.submit(createRequest(transport, candidateUrls.get(startedRequestCount++), acceptEncoding, openConnections, isDecided));
+            while (finishedRequestCount < startedRequestCount) {
+                boolean isHedgingLeft = startedRequestCount < candidateUrls.size();
+                Future<HttpURLConnection> request = isHedgingLeft
+                        ? completionService.poll(HEDGE_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                        : completionService.take();
+                if (request == null) {
+                    URL candidateUrl = candidateUrls.get(startedRequestCount++);
+                    CodePushUtils.log("No response for the package after " + HEDGE_DELAY_MILLIS + " ms, also requesting it from " + candidateUrl.getAuthority() + ".");
+                    completionService.submit(createRequest(transport, candidateUrl, acceptEncoding, openConnections, isDecided));
+                    continue;
+                }
+
+                finishedRequestCount++;
+                try {
+                    HttpURLConnection connection = request.get();
+                    if (connection.getResponseCode() / 100 == 2) {
+                        result = connection;
+                        return result;
+                    }
+
+                    if (result == null) {
+                        result = connection;
+                    }
+                } catch (ExecutionException e) {
+                    if (firstError == null) {
+                        firstError = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+
+                // There is no need to wait for the hedge delay once all the requests sent so far failed.
+                if (finishedRequestCount == startedRequestCount && startedRequestCount < candidateUrls.size()) {
+                    completionService.submit(createRequest(transport, candidateUrls.get(startedRequestCount++), acceptEncoding, openConnections, isDecided));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CodePushUnknownException("Interrupted while requesting the package from its mirrors.", e);
+        } finally {
+            synchronized (openConnections) {
+                isDecided[0] = true;
+                for (HttpURLConnection connection : openConnections) {
+                    if (connection != result) {
+                        connection.disconnect();
+                    }
+                }
+            }
+        }
+
+        if (result != null) {
+            return result;
+        }
+
+        throw firstError;
+    }
+
+    private static Callable<HttpURLConnection> createRequest(final CodePushTransport transport, final URL url, final String acceptEncoding,
+                                                             final List<HttpURLConnection> openConnections,
+                                                             final boolean[] isDecided) {
+        return new Callable<HttpURLConnection>() {
+            @Override
+            public HttpURLConnection call() throws IOException {
+                long startTime = System.nanoTime();
+                HttpURLConnection connection = CodePushUpdateManager.openDownloadConnection(transport, url);
+                connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+                synchronized (openConnections) {
+                    if (isDecided[0]) {
+                        throw new IOException("Another mirror already responded.");
+                    }
+
+                    openConnections.add(connection);
+                }
+
+                try {
+                    connection.getResponseCode();
+                } catch (IOException e) {
+                    boolean isCancelled;
+                    synchronized (openConnections) {
+                        isCancelled = isDecided[0];
+                    }
+
+                    // A cancelled request only tells that the host is slower than the one that won.
+                    recordHostLatency(url, isCancelled
+                            ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) : FAILURE_LATENCY_MILLIS);
+                    throw e;
+                }
+
+                recordHostLatency(url, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                return connection;
+            }
+        };
+    }
+}
@@ -0,0 +1,63 @@
+package com.microsoft.codepush.react;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Reports download progress as bytes are pulled through it, for consumers (like the zip decoder)
+// that read from the network stream themselves.
+class DownloadProgressInputStream extends FilterInputStream {
+    private final long mTotalBytes;
+    private final DownloadProgressCallback mProgressCallback;
+    private long mReceivedBytes = 0;
+
+    public DownloadProgressInputStream(InputStream in, long totalBytes, DownloadProgressCallback progressCallback) {
+        super(in);
+        mTotalBytes = totalBytes;
+        mProgressCallback = progressCallback;
+    }
+
+    public long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int data = super.read();
+        if (data >= 0) {
+            onBytesRead(1);
+        }
+
+        return data;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int numBytesRead = super.read(buffer, offset, length);
+        if (numBytesRead > 0) {
+            onBytesRead(numBytesRead);
+        }
+
+        return numBytesRead;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long numBytesSkipped = super.skip(byteCount);
+        if (numBytesSkipped > 0) {
+            onBytesRead(numBytesSkipped);
+        }
+
+        return numBytesSkipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void onBytesRead(long numBytesRead) {
+        mReceivedBytes += numBytesRead;
+        mProgressCallback.call(new DownloadProgress(mTotalBytes, mReceivedBytes));
+    }
+}
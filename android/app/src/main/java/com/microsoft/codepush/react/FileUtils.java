@@ -1,57 +1,285 @@
 package com.microsoft.codepush.react;
 
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 public class FileUtils {
 
     private static final int WRITE_BUFFER_SIZE = 1024 * 8;
+    private static final int ZIP_FILE_HEADER = 0x504b0304;
+
+    // Shared by all the jobs of runInParallel, created with the first of them.
+    private static ExecutorService sWorkerPool;
 
     public static void copyDirectoryContents(String sourceDirectoryPath, String destinationDirectoryPath) throws IOException {
-        File sourceDir = new File(sourceDirectoryPath);
-        File destDir = new File(destinationDirectoryPath);
+        List<File[]> filesToCopy = new ArrayList<>();
+        addDirectoryContentsToCopy(new File(sourceDirectoryPath), new File(destinationDirectoryPath), filesToCopy, false);
+        copyFiles(filesToCopy);
+    }
+
+    // Creates the destination directories and collects the source/destination pairs of the files to
+    // copy. When tryLinking is set, files that can be hard linked are linked right away instead.
+    private static void addDirectoryContentsToCopy(File sourceDir, File destDir, List<File[]> filesToCopy, boolean tryLinking) {
         if (!destDir.exists()) {
-            destDir.mkdir();
+            destDir.mkdirs();
         }
 
         for (File sourceFile : sourceDir.listFiles()) {
+            File destFile = new File(destDir, sourceFile.getName());
             if (sourceFile.isDirectory()) {
-                copyDirectoryContents(
-                        CodePushUtils.appendPathComponent(sourceDirectoryPath, sourceFile.getName()),
-                        CodePushUtils.appendPathComponent(destinationDirectoryPath, sourceFile.getName()));
-            } else {
-                File destFile = new File(destDir, sourceFile.getName());
-                FileInputStream fromFileStream = null;
-                BufferedInputStream fromBufferedStream = null;
-                FileOutputStream destStream = null;
-                byte[] buffer = new byte[WRITE_BUFFER_SIZE];
-                try {
-                    fromFileStream = new FileInputStream(sourceFile);
-                    fromBufferedStream = new BufferedInputStream(fromFileStream);
-                    destStream = new FileOutputStream(destFile);
-                    int bytesRead;
-                    while ((bytesRead = fromBufferedStream.read(buffer)) > 0) {
-                        destStream.write(buffer, 0, bytesRead);
+                addDirectoryContentsToCopy(sourceFile, destFile, filesToCopy, tryLinking);
+            } else if (!tryLinking || !linkFile(sourceFile, destFile)) {
+                filesToCopy.add(new File[] { sourceFile, destFile });
+            }
+        }
+    }
+
+    // Copies the given source/destination pairs on the shared worker pool.
+    private static void copyFiles(final List<File[]> filesToCopy) throws IOException {
+        runInParallel(filesToCopy.size(), new ParallelTask() {
+            @Override
+            public ParallelWorker createWorker() {
+                return new ParallelWorker() {
+                    @Override
+                    public void process(int index) throws IOException {
+                        File[] fileToCopy = filesToCopy.get(index);
+                        copyFile(fileToCopy[0], fileToCopy[1]);
                     }
-                } finally {
-                    try {
-                        if (fromFileStream != null) fromFileStream.close();
-                        if (fromBufferedStream != null) fromBufferedStream.close();
-                        if (destStream != null) destStream.close();
-                    } catch (IOException e) {
-                        throw new CodePushUnknownException("Error closing IO resources.", e);
+                };
+            }
+        });
+    }
+
+    // A job of independent items, e.g. one per file, that runInParallel hands out to its threads.
+    interface ParallelTask {
+        // Called on each thread that takes part in the job, before its first item.
+        ParallelWorker createWorker() throws Exception;
+    }
+
+    // Processes the items one thread takes, reusing its buffers for all of them.
+    abstract static class ParallelWorker {
+        public abstract void process(int index) throws Exception;
+
+        // Called once the thread is done with the job, whether it succeeded or not.
+        public void finish() {
+        }
+    }
+
+    // Runs a job on the calling thread and on as many threads of the shared pool as the device has
+    // cores, each of them taking the next item left until there is none. A few large items then don't
+    // leave the other threads idle. The pool only helps the calling thread, which never waits for
+    // threads that didn't start yet, so jobs can run other jobs. The first failure stops the job and
+    // is rethrown.
+    static void runInParallel(int count, ParallelTask task) throws IOException {
+        ParallelJob job = new ParallelJob(count, task);
+        int helperCount = Math.min(Runtime.getRuntime().availableProcessors(), count) - 1;
+        for (int i = 0; i < helperCount; i++) {
+            getWorkerPool().execute(job);
+        }
+
+        job.run();
+        try {
+            job.awaitWorkers();
+        } catch (InterruptedException e) {
+            job.error.compareAndSet(null, e);
+            Thread.currentThread().interrupt();
+            throw new CodePushUnknownException("Interrupted while waiting for the worker threads.", e);
+        }
+
+        Throwable error = job.error.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error != null) {
+            throw new CodePushUnknownException("Error in a worker thread.", error);
+        }
+    }
+
+    private static synchronized ExecutorService getWorkerPool() {
+        if (sWorkerPool == null) {
+            sWorkerPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CodePushWorker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sWorkerPool;
+    }
+
+    private static class ParallelJob implements Runnable {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final AtomicInteger mNextIndex = new AtomicInteger();
+        private final int mCount;
+        private final ParallelTask mTask;
+        // Threads that may still be processing an item, guarded by this.
+        private int mActiveWorkerCount = 0;
+
+        ParallelJob(int count, ParallelTask task) {
+            mCount = count;
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                mActiveWorkerCount++;
+            }
+
+            ParallelWorker worker = null;
+            try {
+                int index;
+                while (error.get() == null && (index = mNextIndex.getAndIncrement()) < mCount) {
+                    if (worker == null) {
+                        worker = mTask.createWorker();
                     }
+
+                    worker.process(index);
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            } finally {
+                if (worker != null) {
+                    worker.finish();
+                }
+
+                synchronized (this) {
+                    mActiveWorkerCount--;
+                    notifyAll();
+                }
+            }
+        }
+
+        // Threads that start once all the items are taken leave right away, they are not waited for.
+        synchronized void awaitWorkers() throws InterruptedException {
+            while (mActiveWorkerCount > 0) {
+                wait();
+            }
+        }
+    }
+
+    // Hard links the files of the source directory into the destination directory, falling back to
+    // copying a file when it can't be linked (e.g. below Lollipop). Linked files share their contents
+    // with the source, so they must only ever be replaced or deleted, never written to in place.
+    public static void linkDirectoryContents(String sourceDirectoryPath, String destinationDirectoryPath) throws IOException {
+        List<File[]> filesToCopy = new ArrayList<>();
+        addDirectoryContentsToCopy(new File(sourceDirectoryPath), new File(destinationDirectoryPath), filesToCopy, true);
+        copyFiles(filesToCopy);
+    }
+
+    // Moves the contents of the source directory into the destination directory with renames, replacing
+    // files that already exist there. If the destination does not exist yet, the source directory itself
+    // is renamed, otherwise the contents are merged file by file. Files that can't be renamed (e.g.
+    // because they are on another file system) are copied instead.
+    public static void moveDirectoryContents(String sourceDirectoryPath, String destinationDirectoryPath) throws IOException {
+        File sourceDir = new File(sourceDirectoryPath);
+        File destDir = new File(destinationDirectoryPath);
+        if (!destDir.exists()) {
+            destDir.getParentFile().mkdirs();
+            if (sourceDir.renameTo(destDir)) {
+                return;
+            }
+
+            destDir.mkdirs();
+        }
+
+        for (File sourceFile : sourceDir.listFiles()) {
+            File destFile = new File(destDir, sourceFile.getName());
+            if (sourceFile.isDirectory()) {
+                moveDirectoryContents(sourceFile.getAbsolutePath(), destFile.getAbsolutePath());
+            } else if (!sourceFile.renameTo(destFile)) {
+                copyFile(sourceFile, destFile);
+            }
+        }
+    }
+
+    private static boolean linkFile(File sourceFile, File destFile) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+
+        if (destFile.exists()) {
+            destFile.delete();
+        }
+
+        try {
+            Os.link(sourceFile.getAbsolutePath(), destFile.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            CodePushUtils.log("Unable to link " + sourceFile.getAbsolutePath() + ", copying it instead: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void copyFile(File sourceFile, File destFile) throws IOException {
+        // The destination may be a hard link to a file of another package, replace it rather than
+        // writing through it.
+        if (destFile.exists()) {
+            destFile.delete();
+        }
+
+        // Channel transfers let the kernel copy the data without it passing through the Java heap.
+        FileInputStream fromFileStream = null;
+        FileOutputStream destStream = null;
+        try {
+            fromFileStream = new FileInputStream(sourceFile);
+            destStream = new FileOutputStream(destFile);
+            FileChannel fromChannel = fromFileStream.getChannel();
+            FileChannel destChannel = destStream.getChannel();
+            long size = fromChannel.size();
+            long position = 0;
+            while (position < size) {
+                long bytesTransferred = fromChannel.transferTo(position, size - position, destChannel);
+                if (bytesTransferred <= 0) {
+                    break;
                 }
+
+                position += bytesTransferred;
+            }
+
+            if (position < size) {
+                throw new IOException("Unable to copy " + sourceFile.getAbsolutePath() + " to " + destFile.getAbsolutePath() + ".");
+            }
+        } finally {
+            try {
+                if (fromFileStream != null) fromFileStream.close();
+                if (destStream != null) destStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
             }
         }
+
+        // Saved file hashes are matched by size and modification time, which copies keep as well.
+        destFile.setLastModified(sourceFile.lastModified());
     }
 
     public static void deleteDirectoryAtPath(String directoryPath) {
@@ -86,6 +314,25 @@ public class FileUtils {
         }
     }
 
+    public static long getFolderSize(File folder) {
+        return getFolderSize(folder, 1);
+    }
+
+    // Returns the storage the files of the folder take up, each of them rounded up to whole blocks.
+    public static long getFolderSize(File folder, long blockSize) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        for (File file : files) {
+            size += file.isDirectory() ? getFolderSize(file, blockSize) : (file.length() + blockSize - 1) / blockSize * blockSize;
+        }
+
+        return size;
+    }
+
     public static boolean fileAtPathExists(String filePath) {
         return new File(filePath).exists();
     }
@@ -123,7 +370,7 @@ public class FileUtils {
         }
     }
 
-    private static String validateFileName(String fileName, File destinationFolder) throws IOException {
+    static String validateFileName(String fileName, File destinationFolder) throws IOException {
         String destinationFolderCanonicalPath = destinationFolder.getCanonicalPath() + File.separator;
 
         File file = new File(destinationFolderCanonicalPath, fileName);
@@ -136,14 +383,75 @@ public class FileUtils {
         return canonicalPath;
     }
 
+    public static void readFileHeader(File file, byte[] header) throws IOException {
+        FileInputStream fin = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int numBytesRead;
+            while (offset < header.length && (numBytesRead = fin.read(header, offset, header.length - offset)) > 0) {
+                offset += numBytesRead;
+            }
+        } finally {
+            fin.close();
+        }
+    }
+
+    public static boolean isZipHeader(byte[] header) {
+        return ByteBuffer.wrap(header).getInt() == ZIP_FILE_HEADER;
+    }
+
+    // Extracts a zip or compressed tar archive, see unzipFile for fileHashes.
+    public static void extractArchive(File archiveFile, String destination, Map<String, String> fileHashes) throws IOException {
+        byte[] header = new byte[4];
+        readFileHeader(archiveFile, header);
+        if (TarExtractor.isCompressedHeader(header)) {
+            TarExtractor.extract(archiveFile, destination, fileHashes);
+        } else {
+            unzipFile(archiveFile, destination, fileHashes);
+        }
+    }
+
     public static void unzipFile(File zipFile, String destination) throws IOException {
+        unzipFile(zipFile, destination, null);
+    }
+
+    // When fileHashes is provided, it receives the SHA-256 of every extracted file keyed by its
+    // path relative to destination, computed while the file is written.
+    public static void unzipFile(File zipFile, String destination, Map<String, String> fileHashes) throws IOException {
+        // Zip files are extracted in parallel from their central directory when possible, streaming
+        // through them is only needed for archives ZipExtractor can't read (e.g. ZIP64).
+        if (ZipExtractor.extract(zipFile, destination, fileHashes)) {
+            return;
+        }
+
         FileInputStream fileStream = null;
         BufferedInputStream bufferedStream = null;
-        ZipInputStream zipStream = null;
         try {
             fileStream = new FileInputStream(zipFile);
             bufferedStream = new BufferedInputStream(fileStream);
-            zipStream = new ZipInputStream(bufferedStream);
+            unzipStream(bufferedStream, destination, fileHashes);
+        } finally {
+            try {
+                if (bufferedStream != null) bufferedStream.close();
+                if (fileStream != null) fileStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
+    // Extracts the zip archive read from inputStream as its entries arrive, so that it can be fed
+    // directly from a network stream. The stream is read until its end (which includes the zip's
+    // trailing central directory) and closed.
+    public static void unzipStream(InputStream inputStream, String destination, Map<String, String> fileHashes) throws IOException {
+        ZipInputStream zipStream = null;
+        MessageDigest messageDigest = null;
+        try {
+            if (fileHashes != null) {
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            }
+
+            zipStream = new ZipInputStream(inputStream);
             ZipEntry entry;
 
             File destinationFolder = new File(destination);
@@ -152,6 +460,7 @@ public class FileUtils {
             }
 
             destinationFolder.mkdirs();
+            String destinationFolderCanonicalPath = destinationFolder.getCanonicalPath() + File.separator;
 
             byte[] buffer = new byte[WRITE_BUFFER_SIZE];
             while ((entry = zipStream.getNextEntry()) != null) {
@@ -170,21 +479,33 @@ public class FileUtils {
                         int numBytesRead;
                         while ((numBytesRead = zipStream.read(buffer)) != -1) {
                             fout.write(buffer, 0, numBytesRead);
+                            if (messageDigest != null) {
+                                messageDigest.update(buffer, 0, numBytesRead);
+                            }
                         }
                     } finally {
                         fout.close();
                     }
+
+                    if (messageDigest != null) {
+                        String relativePath = fileName.substring(destinationFolderCanonicalPath.length()).replace(File.separatorChar, '/');
+                        fileHashes.put(relativePath, CodePushUpdateUtils.getHashString(messageDigest.digest()));
+                    }
                 }
                 long time = entry.getTime();
                 if (time > 0) {
                     file.setLastModified(time);
                 }
             }
+
+            // Consume the central directory as well, the entries above are all we need from it.
+            while (inputStream.read(buffer) != -1) ;
+        } catch (NoSuchAlgorithmException e) {
+            // Should not happen.
+            throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
         } finally {
             try {
                 if (zipStream != null) zipStream.close();
-                if (bufferedStream != null) bufferedStream.close();
-                if (fileStream != null) fileStream.close();
             } catch (IOException e) {
                 throw new CodePushUnknownException("Error closing IO resources.", e);
             }
@@ -0,0 +1,73 @@
+package com.microsoft.codepush.react;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Keeps the archives of full updates under CodePush/.archives, named after their package hash, so that
+// a package can be installed again without downloading it after its path prefix was cleared, e.g. when
+// switching deployments. The cache is bounded in bytes and drops the least recently used archives first,
+// using the modification time of the files to remember when they were last used.
+class PackageArchiveCache {
+
+    private static final Comparator<File> LEAST_RECENTLY_USED_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+            long lhsLastModified = lhs.lastModified();
+            long rhsLastModified = rhs.lastModified();
+            return lhsLastModified == rhsLastModified ? 0 : (lhsLastModified < rhsLastModified ? -1 : 1);
+        }
+    };
+
+    // Returns the cached archive of the package, or null if there is none. The archive has not been
+    // checked, its contents have to be verified against the package hash before they are used.
+    public static synchronized File get(String cachePath, String packageHash) {
+        File archive = new File(cachePath, packageHash);
+        if (!archive.isFile()) {
+            return null;
+        }
+
+        archive.setLastModified(System.currentTimeMillis());
+        return archive;
+    }
+
+    // Moves the archive into the cache, then evicts archives until the cache fits in maxSize bytes. The
+    // archive is deleted if it can't be moved or is larger than the whole cache.
+    public static synchronized void put(String cachePath, String packageHash, File archive, long maxSize) {
+        File cacheFolder = new File(cachePath);
+        cacheFolder.mkdirs();
+        File cachedArchive = new File(cacheFolder, packageHash);
+        cachedArchive.delete();
+        if (archive.length() > maxSize || !archive.renameTo(cachedArchive)) {
+            FileUtils.deleteFileOrFolderSilently(archive);
+            return;
+        }
+
+        cachedArchive.setLastModified(System.currentTimeMillis());
+        File[] cachedArchives = cacheFolder.listFiles();
+        if (cachedArchives == null) {
+            return;
+        }
+
+        long totalSize = 0;
+        for (File file : cachedArchives) {
+            totalSize += file.length();
+        }
+
+        Arrays.sort(cachedArchives, LEAST_RECENTLY_USED_FIRST);
+        for (File file : cachedArchives) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+
+            if (!file.equals(cachedArchive)) {
+                totalSize -= file.length();
+                FileUtils.deleteFileOrFolderSilently(file);
+            }
+        }
+    }
+
+    public static synchronized void remove(String cachePath, String packageHash) {
+        FileUtils.deleteFileOrFolderSilently(new File(cachePath, packageHash));
+    }
+}
@@ -0,0 +1,218 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Bounds the storage used by update packages across all path prefixes, on top of the current plus
+// previous rule of installPackage. Packages are evicted least recently run first, down to a maximum
+// number of packages per path prefix and then to a byte budget for all of them. The current and
+// pending packages, the previous package while an update is pending, the ones running in this process,
+// those still being downloaded and those downloaded but not installed yet are never evicted. Nothing is
+// evicted from a path prefix while one of its downloads, which may read any of its packages, is in progress.
+class PackageRetentionManager {
+
+    // Evictions run one at a time on a low priority thread, they are never urgent.
+    private static final ExecutorService sEvictionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CodePushPackageRetention");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private static class PackageEntry {
+        final String pathPrefix;
+        final String packageHash;
+        final long lastRunTime;
+        final long size;
+
+        PackageEntry(String pathPrefix, String packageHash, long lastRunTime, long size) {
+            this.pathPrefix = pathPrefix;
+            this.packageHash = packageHash;
+            this.lastRunTime = lastRunTime;
+            this.size = size;
+        }
+    }
+
+    private static final Comparator<PackageEntry> MOST_RECENTLY_RUN_FIRST = new Comparator<PackageEntry>() {
+        @Override
+        public int compare(PackageEntry lhs, PackageEntry rhs) {
+            return lhs.lastRunTime == rhs.lastRunTime ? 0 : (lhs.lastRunTime > rhs.lastRunTime ? -1 : 1);
+        }
+    };
+
+    private final CodePushUpdateManager mUpdateManager;
+    private final SettingsManager mSettingsManager;
+    // Hashes of the packages loaded by this process, by path prefix. Their files may still be read.
+    private final Map<String, String> mRunningPackageHashes = new HashMap<>();
+    private volatile int mMaxPackagesPerPathPrefix = 0;
+    private volatile long mStorageBudget = 0;
+
+    public PackageRetentionManager(CodePushUpdateManager updateManager, SettingsManager settingsManager) {
+        mUpdateManager = updateManager;
+        mSettingsManager = settingsManager;
+    }
+
+    public void setPolicy(int maxPackagesPerPathPrefix, long storageBudget) {
+        mMaxPackagesPerPathPrefix = Math.max(0, maxPackagesPerPathPrefix);
+        mStorageBudget = Math.max(0, storageBudget);
+    }
+
+    public boolean isEnabled() {
+        return mMaxPackagesPerPathPrefix > 0 || mStorageBudget > 0;
+    }
+
+    // Called while the JS bundle is being loaded, so the run time is written on the eviction thread.
+    public void recordPackageRun(final String pathPrefix) {
+        synchronized (mRunningPackageHashes) {
+            mRunningPackageHashes.put(pathPrefix, mUpdateManager.getCurrentPackageHash(pathPrefix));
+        }
+
+        if (!isEnabled()) {
+            return;
+        }
+
+        sEvictionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mUpdateManager.recordPackageRun(pathPrefix);
+                } catch (RuntimeException e) {
+                    CodePushUtils.log("Unable to record the run of the current package: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    public void evictInBackground() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        sEvictionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evict();
+                } catch (RuntimeException e) {
+                    // Eviction is retried after the next install, there is nobody to report to here.
+                    CodePushUtils.log("Unable to apply the package retention policy: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Returns the number of bytes freed. With the content store enabled, files shared with the packages
+    // that are kept are counted although they stay on disk.
+    long evict() {
+        List<PackageEntry> evictablePackages = new ArrayList<>();
+        long totalSize = 0;
+        long freedSize = 0;
+        int evictedPackageCount = 0;
+        for (String pathPrefix : mUpdateManager.getPathPrefixes()) {
+            Set<String> pinnedPackageHashes = getPinnedPackageHashes(pathPrefix);
+            List<PackageEntry> packages = new ArrayList<>();
+            int keptPackageCount = 0;
+            for (String packageHash : mUpdateManager.getPackageHashes(pathPrefix)) {
+                if (!mUpdateManager.isPackageComplete(packageHash, pathPrefix)) {
+                    // Still being downloaded, or left over by a download that will be cleaned up anyway.
+                    continue;
+                }
+
+                long size = FileUtils.getFolderSize(new File(mUpdateManager.getPackageFolderPath(packageHash, pathPrefix)));
+                totalSize += size;
+                if (pinnedPackageHashes.contains(packageHash)) {
+                    keptPackageCount++;
+                } else {
+                    packages.add(new PackageEntry(pathPrefix, packageHash,
+                            mUpdateManager.getPackageLastRunTime(packageHash, pathPrefix), size));
+                }
+            }
+
+            Collections.sort(packages, MOST_RECENTLY_RUN_FIRST);
+            for (PackageEntry packageEntry : packages) {
+                if (mMaxPackagesPerPathPrefix > 0 && keptPackageCount >= mMaxPackagesPerPathPrefix) {
+                    if (mUpdateManager.deletePackage(packageEntry.packageHash, pathPrefix)) {
+                        totalSize -= packageEntry.size;
+                        freedSize += packageEntry.size;
+                        evictedPackageCount++;
+                    }
+                } else {
+                    keptPackageCount++;
+                    evictablePackages.add(packageEntry);
+                }
+            }
+        }
+
+        if (mStorageBudget > 0 && totalSize > mStorageBudget) {
+            Collections.sort(evictablePackages, Collections.reverseOrder(MOST_RECENTLY_RUN_FIRST));
+            for (PackageEntry packageEntry : evictablePackages) {
+                if (totalSize <= mStorageBudget) {
+                    break;
+                }
+
+                if (mUpdateManager.deletePackage(packageEntry.packageHash, packageEntry.pathPrefix)) {
+                    totalSize -= packageEntry.size;
+                    freedSize += packageEntry.size;
+                    evictedPackageCount++;
+                }
+            }
+
+            if (totalSize > mStorageBudget) {
+                CodePushUtils.log("Update packages use " + totalSize + " bytes, which is over the storage budget of "
+                        + mStorageBudget + " bytes, but the remaining packages are in use.");
+            }
+        }
+
+        if (evictedPackageCount > 0) {
+            CodePushUtils.log("Evicted " + evictedPackageCount + " update packages, freeing " + freedSize + " bytes.");
+        }
+
+        return freedSize;
+    }
+
+    private Set<String> getPinnedPackageHashes(String pathPrefix) {
+        Set<String> pinnedPackageHashes = new HashSet<>();
+        String currentPackageHash = mUpdateManager.getCurrentPackageHash(pathPrefix);
+        if (currentPackageHash != null) {
+            pinnedPackageHashes.add(currentPackageHash);
+        }
+
+        JSONObject pendingUpdate = mSettingsManager.getPendingUpdate(pathPrefix);
+        if (pendingUpdate != null) {
+            String pendingPackageHash = pendingUpdate.optString(CodePushConstants.PENDING_UPDATE_HASH_KEY, null);
+            if (pendingPackageHash != null) {
+                pinnedPackageHashes.add(pendingPackageHash);
+            }
+
+            // Until notifyApplicationReady confirms the update, a crash rolls back to the previous package.
+            String previousPackageHash = mUpdateManager.getPreviousPackageHash(pathPrefix);
+            if (previousPackageHash != null) {
+                pinnedPackageHashes.add(previousPackageHash);
+            }
+        }
+
+        synchronized (mRunningPackageHashes) {
+            String runningPackageHash = mRunningPackageHashes.get(pathPrefix);
+            if (runningPackageHash != null) {
+                pinnedPackageHashes.add(runningPackageHash);
+            }
+        }
+
+        return pinnedPackageHashes;
+    }
+}
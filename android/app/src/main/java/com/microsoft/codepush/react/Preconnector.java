@@ -0,0 +1,98 @@
+package com.microsoft.codepush.react;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Warms up connections to the hosts that updates are about to be checked for and downloaded from, so
+// that the first requests don't have to wait for DNS, TCP and TLS. Each host is asked for the first byte
+// of its root through the transport. The response is read completely so that the connection goes back
+// to the transport's pool, kept alive for the download that follows. HEAD requests would be smaller,
+// but not every HttpURLConnection implementation keeps their connections alive.
+class Preconnector {
+
+    private static final int PRECONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    // Servers may ignore the range, larger responses are not worth reading to keep the connection.
+    private static final int MAX_RESPONSE_SIZE = 64 * 1024;
+
+    private static final ExecutorService sPreconnectExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CodePushPreconnect");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public static void execute(Runnable preconnection) {
+        sPreconnectExecutor.execute(preconnection);
+    }
+
+    // Connects to the origin of every URL once. Failures are only logged, the requests that need the
+    // connections will report them.
+    public static void preconnect(CodePushTransport transport, List<String> urls) {
+        List<String> origins = new ArrayList<>();
+        for (String urlString : urls) {
+            try {
+                URL url = new URL(urlString);
+                String origin = url.getProtocol() + "://" + url.getAuthority() + "/";
+                if (!origins.contains(origin)) {
+                    origins.add(origin);
+                }
+            } catch (MalformedURLException e) {
+                CodePushUtils.log("Unable to preconnect to " + urlString + ": " + e.getMessage());
+            }
+        }
+
+        byte[] buffer = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+        for (String origin : origins) {
+            long startTime = System.nanoTime();
+            HttpURLConnection connection = null;
+            try {
+                connection = transport.openConnection(new URL(origin));
+                connection.setRequestProperty("Range", "bytes=0-0");
+                connection.setConnectTimeout(PRECONNECT_TIMEOUT_MILLIS);
+                connection.setReadTimeout(PRECONNECT_TIMEOUT_MILLIS);
+                InputStream responseStream = connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                        ? connection.getInputStream() : connection.getErrorStream();
+                if (responseStream != null) {
+                    try {
+                        if (!skipResponse(responseStream, buffer)) {
+                            connection.disconnect();
+                        }
+                    } finally {
+                        responseStream.close();
+                    }
+                }
+
+                CodePushUtils.log("Preconnected to " + origin + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms.");
+            } catch (IOException e) {
+                CodePushUtils.log("Unable to preconnect to " + origin + ": " + e.getMessage());
+                // The connection can't be reused, so it is closed instead of going back to the pool.
+                if (connection != null) connection.disconnect();
+            }
+        }
+    }
+
+    // Returns false if the response is too large to be read completely.
+    private static boolean skipResponse(InputStream responseStream, byte[] buffer) throws IOException {
+        int responseSize = 0;
+        int numBytesRead;
+        while ((numBytesRead = responseStream.read(buffer)) >= 0) {
+            responseSize += numBytesRead;
+            if (responseSize > MAX_RESPONSE_SIZE) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,188 @@
+package com.microsoft.codepush.react;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class SegmentedDownloader {
+
+    private final URL mDownloadUrl;
+    private final File mDownloadFile;
+    private final CodePushTransport mTransport;
+    private final DownloadProgressCallback mProgressCallback;
+    private String mValidator;
+    private long mTotalBytes;
+    private long mReceivedBytes = 0;
+    private volatile boolean mIsCancelled = false;
+
+    private SegmentedDownloader(CodePushTransport transport, URL downloadUrl, File downloadFile, DownloadProgressCallback progressCallback) {
+        mTransport = transport;
+        mDownloadUrl = downloadUrl;
+        mDownloadFile = downloadFile;
+        mProgressCallback = progressCallback;
+    }
+
+    // Downloads the file as several byte ranges fetched concurrently, each of them written straight
+    // into its place in a preallocated file. Returns false without writing anything if the server
+    // does not support range requests or the file is too small to be worth splitting, in which case
+    // the caller is expected to fall back to a single stream.
+    public static boolean download(CodePushTransport transport, URL downloadUrl, File downloadFile, int segmentCount,
+                                   DownloadProgressCallback progressCallback) throws IOException {
+        SegmentedDownloader downloader = new SegmentedDownloader(transport, downloadUrl, downloadFile, progressCallback);
+        if (!downloader.probe()) {
+            return false;
+        }
+
+        segmentCount = (int) Math.min(segmentCount, downloader.mTotalBytes / CodePushConstants.DOWNLOAD_SEGMENT_MIN_SIZE);
+        if (segmentCount < 2) {
+            return false;
+        }
+
+        CodePushUtils.log("Downloading " + downloader.mTotalBytes + " bytes in " + segmentCount + " segments.");
+        downloader.downloadSegments(segmentCount);
+        return true;
+    }
+
+    // Asks for the first byte only, which tells us both whether ranges are supported and the total size.
+    private boolean probe() throws IOException {
+        HttpURLConnection connection = CodePushUpdateManager.openDownloadConnection(mTransport, mDownloadUrl);
+        try {
+            connection.setRequestProperty("Range", "bytes=0-0");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                CodePushUtils.log("Server does not support range requests, downloading the package in a single stream.");
+                return false;
+            }
+
+            String contentRange = connection.getHeaderField("Content-Range");
+            int totalSeparatorIndex = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+            if (totalSeparatorIndex < 0) {
+                return false;
+            }
+
+            try {
+                mTotalBytes = Long.parseLong(contentRange.substring(totalSeparatorIndex + 1).trim());
+            } catch (NumberFormatException e) {
+                // The total size is unknown ("*").
+                return false;
+            }
+
+            mValidator = CodePushUpdateManager.getStrongETag(connection);
+            if (mValidator == null) {
+                mValidator = connection.getHeaderField("Last-Modified");
+            }
+
+            connection.getInputStream().close();
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void downloadSegments(int segmentCount) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mDownloadFile, "rw");
+        try {
+            file.setLength(mTotalBytes);
+        } finally {
+            file.close();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(segmentCount);
+        List<Future<Void>> segments = new ArrayList<>();
+        long segmentSize = mTotalBytes / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            final long start = i * segmentSize;
+            final long end = i == segmentCount - 1 ? mTotalBytes - 1 : start + segmentSize - 1;
+            segments.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    downloadSegment(start, end);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Void> segment : segments) {
+                segment.get();
+            }
+        } catch (ExecutionException e) {
+            mIsCancelled = true;
+            mDownloadFile.delete();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new CodePushUnknownException("Error downloading package segment.", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mIsCancelled = true;
+            mDownloadFile.delete();
+            throw new CodePushUnknownException("Interrupted while downloading package segments.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void downloadSegment(long start, long end) throws IOException {
+        HttpURLConnection connection = CodePushUpdateManager.openDownloadConnection(mTransport, mDownloadUrl);
+        BufferedInputStream bin = null;
+        RandomAccessFile file = null;
+        try {
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            if (mValidator != null) {
+                connection.setRequestProperty("If-Range", mValidator);
+            }
+
+            // Anything but the exact range we asked for means the file changed under us.
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                    || !CodePushUpdateManager.isContentRangeStartingAt(connection, start)) {
+                throw new CodePushUnknownException("Server returned an unexpected response for package segment " + start + "-" + end + ".");
+            }
+
+            bin = new BufferedInputStream(connection.getInputStream());
+            file = new RandomAccessFile(mDownloadFile, "rw");
+            file.seek(start);
+
+            byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+            long remainingBytes = end - start + 1;
+            int numBytesRead;
+            while (remainingBytes > 0 && !mIsCancelled
+                    && (numBytesRead = bin.read(data, 0, (int) Math.min(data.length, remainingBytes))) >= 0) {
+                file.write(data, 0, numBytesRead);
+                remainingBytes -= numBytesRead;
+                reportProgress(numBytesRead);
+            }
+
+            if (remainingBytes > 0 && !mIsCancelled) {
+                throw new CodePushUnknownException("Package segment " + start + "-" + end + " ended " + remainingBytes + " bytes early.");
+            }
+        } finally {
+            try {
+                if (file != null) file.close();
+                if (bin != null) bin.close();
+                connection.disconnect();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
+    // The progress callback is not thread-safe, so segments take turns reporting.
+    private synchronized void reportProgress(int numBytesRead) {
+        mReceivedBytes += numBytesRead;
+        mProgressCallback.call(new DownloadProgress(mTotalBytes, mReceivedBytes));
+    }
+}
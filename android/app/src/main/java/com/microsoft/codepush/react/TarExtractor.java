@@ -0,0 +1,406 @@
+package com.microsoft.codepush.react;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+// Extracts update packages made of a tar archive compressed as a whole with Zstandard (.tar.zst) or gzip
+// (.tar.gz), and decompresses packages made of a single compressed jsbundle. Unlike zip, which deflates every file on its own, these compress the files of a package
+// against each other, so packages with many similar files get much smaller. Zstandard needs the zstd-jni
+// library in the app. Only regular files and folders are extracted, links and special files are skipped,
+// and every path goes through the same check against escaping the destination as zip entries.
+class TarExtractor {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int ZSTD_MAGIC_NUMBER = 0xFD2FB528;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char TYPE_REGULAR_FILE = '0';
+    private static final char TYPE_LEGACY_REGULAR_FILE = '\0';
+    private static final char TYPE_CONTIGUOUS_FILE = '7';
+    private static final char TYPE_DIRECTORY = '5';
+    private static final char TYPE_GNU_LONG_NAME = 'L';
+    private static final char TYPE_PAX_HEADER = 'x';
+
+    // Compressed packages are tar archives or, when their data has no ustar magic, a single compressed file
+    // such as a jsbundle.
+    public static boolean isCompressedHeader(byte[] header) {
+        return isZstdHeader(header) || isGzipHeader(header);
+    }
+
+    private static boolean isZstdHeader(byte[] header) {
+        return header.length >= 4 && ((header[0] & 0xFF) | (header[1] & 0xFF) << 8
+                | (header[2] & 0xFF) << 16 | (header[3] & 0xFF) << 24) == ZSTD_MAGIC_NUMBER;
+    }
+
+    private static boolean isGzipHeader(byte[] header) {
+        return header.length >= 2 && (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B;
+    }
+
+    public static void extract(File archiveFile, String destination, Map<String, String> fileHashes) throws IOException {
+        InputStream tarStream = openDecompressedFile(archiveFile);
+        try {
+            extractTarStream(tarStream, destination, fileHashes);
+        } finally {
+            tarStream.close();
+        }
+    }
+
+    // Tells whether the compressed file holds a tar archive, from its first block once decompressed.
+    public static boolean isCompressedTarFile(File file) throws IOException {
+        InputStream decompressedStream = openDecompressedFile(file);
+        try {
+            byte[] block = new byte[BLOCK_SIZE];
+            return isTarBlock(block, readFully(decompressedStream, block, BLOCK_SIZE));
+        } finally {
+            decompressedStream.close();
+        }
+    }
+
+    // Replaces the compressed file with its decompressed contents.
+    public static void decompressFile(File file) throws IOException {
+        File decompressedFile = new File(file.getPath() + ".decompressed");
+        InputStream decompressedStream = openDecompressedFile(file);
+        try {
+            writeStream(decompressedStream, decompressedFile);
+        } finally {
+            decompressedStream.close();
+        }
+
+        if (!file.delete() || !decompressedFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file + " with its decompressed contents.");
+        }
+    }
+
+    // Decompresses the package read from inputStream, which has to support mark. Tar archives are extracted
+    // as their entries arrive and true is returned. When fileHashes is provided, it receives the SHA-256 of
+    // every extracted file keyed by its path relative to destination, as with zip archives. Anything else is
+    // a single compressed file, which is written decompressed to plainFile, and false is returned. The
+    // stream is read until its end, so that the checksum at the end of the compressed data is verified,
+    // and closed.
+    public static boolean extractStream(InputStream inputStream, String destination, Map<String, String> fileHashes,
+                                        File plainFile) throws IOException {
+        InputStream decompressedStream = null;
+        try {
+            decompressedStream = new BufferedInputStream(decompress(inputStream), CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+            byte[] block = new byte[BLOCK_SIZE];
+            decompressedStream.mark(BLOCK_SIZE);
+            int blockLength = readFully(decompressedStream, block, BLOCK_SIZE);
+            decompressedStream.reset();
+            if (!isTarBlock(block, blockLength)) {
+                writeStream(decompressedStream, plainFile);
+                return false;
+            }
+
+            extractTarStream(decompressedStream, destination, fileHashes);
+            return true;
+        } finally {
+            try {
+                if (decompressedStream != null) {
+                    decompressedStream.close();
+                } else {
+                    inputStream.close();
+                }
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
+    private static InputStream openDecompressedFile(File file) throws IOException {
+        InputStream fileStream = new BufferedInputStream(new FileInputStream(file), CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+        try {
+            return decompress(fileStream);
+        } catch (IOException | RuntimeException e) {
+            fileStream.close();
+            throw e;
+        }
+    }
+
+    // Returns the decompressed data of inputStream, which has to support mark.
+    private static InputStream decompress(InputStream inputStream) throws IOException {
+        byte[] header = new byte[4];
+        inputStream.mark(header.length);
+        readFully(inputStream, header, header.length);
+        inputStream.reset();
+        if (isZstdHeader(header)) {
+            if (!ContentEncodings.isZstdSupported()) {
+                throw new CodePushInvalidUpdateException("The update is compressed with Zstandard, which needs the zstd-jni library.");
+            }
+
+            return ContentEncodings.decode(inputStream, ContentEncodings.ZSTD);
+        } else if (isGzipHeader(header)) {
+            return ContentEncodings.decode(inputStream, ContentEncodings.GZIP);
+        }
+
+        throw new CodePushInvalidUpdateException("The update is not compressed.");
+    }
+
+    // Tar headers of the ustar format and of GNU tar both start their magic with "ustar".
+    private static boolean isTarBlock(byte[] block, int length) {
+        return length == BLOCK_SIZE && new String(block, 257, 5, UTF_8).equals("ustar");
+    }
+
+    private static void writeStream(InputStream inputStream, File file) throws IOException {
+        FileOutputStream fout = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+            int numBytesRead;
+            while ((numBytesRead = inputStream.read(buffer)) != -1) {
+                fout.write(buffer, 0, numBytesRead);
+            }
+        } finally {
+            fout.close();
+        }
+    }
+
+    private static void extractTarStream(InputStream tarStream, String destination, Map<String, String> fileHashes) throws IOException {
+        MessageDigest messageDigest = null;
+        try {
+            if (fileHashes != null) {
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            }
+        } catch (NoSuchAlgorithmException e) {
+            // Should not happen.
+            throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
+        }
+
+        File destinationFolder = new File(destination);
+        if (destinationFolder.exists()) {
+            FileUtils.deleteFileOrFolderSilently(destinationFolder);
+        }
+
+        destinationFolder.mkdirs();
+        String destinationFolderCanonicalPath = destinationFolder.getCanonicalPath() + File.separator;
+
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] buffer = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+        // Set by the extended header that precedes an entry whose name doesn't fit in its own header.
+        String longEntryName = null;
+        int headerLength;
+        while ((headerLength = readFully(tarStream, block, BLOCK_SIZE)) > 0 && !isZeroBlock(block)) {
+            if (headerLength < BLOCK_SIZE) {
+                throw new EOFException("Unexpected end of the tar archive.");
+            }
+
+            if (parseNumber(block, 148, 8) != computeHeaderChecksum(block)) {
+                throw new CodePushInvalidUpdateException("The update contains a tar header with an invalid checksum.");
+            }
+
+            char type = (char) block[156];
+            long size = parseNumber(block, 124, 12);
+            String entryName = longEntryName != null ? longEntryName : getEntryName(block);
+            longEntryName = null;
+            if (type == TYPE_GNU_LONG_NAME) {
+                longEntryName = trimNulls(new String(readEntryData(tarStream, size), UTF_8));
+            } else if (type == TYPE_PAX_HEADER) {
+                longEntryName = getPaxPath(readEntryData(tarStream, size));
+            } else if (type == TYPE_DIRECTORY) {
+                // Archives made from within the package folder list that folder itself as "./".
+                if (!entryName.equals(".") && !entryName.equals("./")) {
+                    new File(FileUtils.validateFileName(entryName, destinationFolder)).mkdirs();
+                }
+
+                skipFully(tarStream, size, buffer);
+            } else if (type == TYPE_REGULAR_FILE || type == TYPE_LEGACY_REGULAR_FILE || type == TYPE_CONTIGUOUS_FILE) {
+                String fileName = FileUtils.validateFileName(entryName, destinationFolder);
+                File file = new File(fileName);
+                File parent = file.getParentFile();
+                if (!parent.exists()) {
+                    parent.mkdirs();
+                }
+
+                FileOutputStream fout = new FileOutputStream(file);
+                try {
+                    long remainingBytes = size;
+                    while (remainingBytes > 0) {
+                        int numBytesRead = tarStream.read(buffer, 0, (int) Math.min(buffer.length, remainingBytes));
+                        if (numBytesRead < 0) {
+                            throw new EOFException("Unexpected end of the tar archive.");
+                        }
+
+                        fout.write(buffer, 0, numBytesRead);
+                        if (messageDigest != null) {
+                            messageDigest.update(buffer, 0, numBytesRead);
+                        }
+
+                        remainingBytes -= numBytesRead;
+                    }
+                } finally {
+                    fout.close();
+                }
+
+                if (messageDigest != null) {
+                    String relativePath = fileName.substring(destinationFolderCanonicalPath.length()).replace(File.separatorChar, '/');
+                    fileHashes.put(relativePath, CodePushUpdateUtils.getHashString(messageDigest.digest()));
+                }
+
+                long time = parseNumber(block, 136, 12) * 1000;
+                if (time > 0) {
+                    file.setLastModified(time);
+                }
+            } else {
+                // Global extended headers, links and special files have no contents a package needs.
+                CodePushUtils.log("Skipping tar entry " + entryName + " of type '" + type + "'.");
+                skipFully(tarStream, size, buffer);
+            }
+
+            skipFully(tarStream, (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE, buffer);
+        }
+
+        // Read past the end of archive blocks, which makes the decoder check the integrity of the data.
+        while (tarStream.read(buffer) != -1) ;
+    }
+
+    // Names longer than 100 characters are split between the name field and the ustar prefix field.
+    private static String getEntryName(byte[] block) {
+        String name = parseString(block, 0, 100);
+        if (new String(block, 257, 5, UTF_8).equals("ustar")) {
+            String prefix = parseString(block, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+
+        return name;
+    }
+
+    // Pax extended headers are a list of "<length> <key>=<value>\n" records, of which only the path matters.
+    private static String getPaxPath(byte[] data) throws IOException {
+        String path = null;
+        int offset = 0;
+        while (offset < data.length) {
+            int spaceIndex = offset;
+            while (spaceIndex < data.length && data[spaceIndex] != ' ') {
+                spaceIndex++;
+            }
+
+            int recordLength;
+            try {
+                recordLength = Integer.parseInt(new String(data, offset, spaceIndex - offset, UTF_8));
+            } catch (NumberFormatException e) {
+                recordLength = 0;
+            }
+
+            if (recordLength <= spaceIndex - offset || offset + recordLength > data.length) {
+                throw new CodePushInvalidUpdateException("The update contains an invalid pax header in its tar archive.");
+            }
+
+            // The record ends with a newline that is not part of the value.
+            String record = new String(data, spaceIndex + 1, offset + recordLength - spaceIndex - 2, UTF_8);
+            if (record.startsWith("path=")) {
+                path = record.substring("path=".length());
+            }
+
+            offset += recordLength;
+        }
+
+        return path;
+    }
+
+    private static byte[] readEntryData(InputStream tarStream, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new CodePushInvalidUpdateException("The update contains an extended tar header that is too large.");
+        }
+
+        byte[] data = new byte[(int) size];
+        if (readFully(tarStream, data, data.length) < data.length) {
+            throw new EOFException("Unexpected end of the tar archive.");
+        }
+
+        return data;
+    }
+
+    // Numbers are octal text, unless their first byte has its high bit set, in which case they are
+    // big-endian binary (GNU tar uses that for sizes of 8 GB and more).
+    private static long parseNumber(byte[] block, int offset, int length) {
+        long value = 0;
+        if ((block[offset] & 0x80) != 0) {
+            value = block[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (block[i] & 0xFF);
+            }
+
+            return value;
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            byte digit = block[i];
+            if (digit >= '0' && digit <= '7') {
+                value = (value << 3) + (digit - '0');
+            } else if (digit != ' ' || value > 0) {
+                break;
+            }
+        }
+
+        return value;
+    }
+
+    private static String parseString(byte[] block, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+
+        return new String(block, offset, end - offset, UTF_8);
+    }
+
+    private static String trimNulls(String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == '\0') {
+            end--;
+        }
+
+        return value.substring(0, end);
+    }
+
+    // The checksum is the sum of the header's bytes, with its own field counted as spaces.
+    private static long computeHeaderChecksum(byte[] block) {
+        long checksum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            checksum += i >= 148 && i < 156 ? ' ' : block[i] & 0xFF;
+        }
+
+        return checksum;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte value : block) {
+            if (value != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Returns the number of bytes read, which is only less than length at the end of the stream.
+    private static int readFully(InputStream inputStream, byte[] data, int length) throws IOException {
+        int offset = 0;
+        int numBytesRead;
+        while (offset < length && (numBytesRead = inputStream.read(data, offset, length - offset)) > 0) {
+            offset += numBytesRead;
+        }
+
+        return offset;
+    }
+
+    private static void skipFully(InputStream inputStream, long count, byte[] buffer) throws IOException {
+        while (count > 0) {
+            int numBytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (numBytesRead < 0) {
+                throw new EOFException("Unexpected end of the tar archive.");
+            }
+
+            count -= numBytesRead;
+        }
+    }
+}
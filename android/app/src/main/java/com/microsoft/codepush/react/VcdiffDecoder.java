@@ -0,0 +1,414 @@
+package com.microsoft.codepush.react;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.zip.Adler32;
+
+// Applies VCDIFF (RFC 3284) patches, as written by xdelta3 with "-S none" or by open-vcdiff, to a file
+// of the current package. The patch is read as a stream and copies from the source file are read at
+// their offsets, so only one target window is held in memory at a time. Secondary compression and
+// custom code tables are not supported.
+class VcdiffDecoder {
+
+    private static final int VCD_DECOMPRESS = 0x01;
+    private static final int VCD_CODETABLE = 0x02;
+    private static final int VCD_APPHEADER = 0x04;
+
+    private static final int VCD_SOURCE = 0x01;
+    private static final int VCD_TARGET = 0x02;
+    // Extension used by xdelta3 and open-vcdiff to add an Adler-32 checksum of the target window.
+    private static final int VCD_ADLER32 = 0x04;
+
+    private static final int NOOP = 0;
+    private static final int ADD = 1;
+    private static final int RUN = 2;
+    private static final int COPY = 3;
+
+    private static final int NEAR_CACHE_SIZE = 4;
+    private static final int SAME_CACHE_SIZE = 3;
+
+    // Encoders default to windows of a few megabytes, this only guards against malformed patches.
+    private static final int MAX_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // The default code table of RFC 3284 section 5.6, as {type, size, mode} for both instructions of
+    // each code.
+    private static final int[][] DEFAULT_CODE_TABLE = buildDefaultCodeTable();
+
+    private static int[][] buildDefaultCodeTable() {
+        int[][] codeTable = new int[256][];
+        int code = 0;
+        codeTable[code++] = new int[]{RUN, 0, 0, NOOP, 0, 0};
+        for (int size = 0; size <= 17; size++) {
+            codeTable[code++] = new int[]{ADD, size, 0, NOOP, 0, 0};
+        }
+
+        for (int mode = 0; mode < 9; mode++) {
+            codeTable[code++] = new int[]{COPY, 0, mode, NOOP, 0, 0};
+            for (int size = 4; size <= 18; size++) {
+                codeTable[code++] = new int[]{COPY, size, mode, NOOP, 0, 0};
+            }
+        }
+
+        for (int mode = 0; mode < 9; mode++) {
+            int maxCopySize = mode < 6 ? 6 : 4;
+            for (int addSize = 1; addSize <= 4; addSize++) {
+                for (int copySize = 4; copySize <= maxCopySize; copySize++) {
+                    codeTable[code++] = new int[]{ADD, addSize, 0, COPY, copySize, mode};
+                }
+            }
+        }
+
+        for (int mode = 0; mode < 9; mode++) {
+            codeTable[code++] = new int[]{COPY, 4, mode, ADD, 1, 0};
+        }
+
+        return codeTable;
+    }
+
+    // Writes the result of applying the patch to the source file to the target file. The digest, if
+    // any, is updated with the target's contents.
+    public static void decode(File sourceFile, File patchFile, File targetFile, MessageDigest digest) throws IOException {
+        RandomAccessFile source = null;
+        RandomAccessFile target = null;
+        DataInputStream patch = null;
+        try {
+            source = new RandomAccessFile(sourceFile, "r");
+            targetFile.delete();
+            target = new RandomAccessFile(targetFile, "rw");
+            patch = new DataInputStream(new BufferedInputStream(new FileInputStream(patchFile), CodePushConstants.DOWNLOAD_BUFFER_SIZE));
+            readHeader(patch);
+
+            int winIndicator;
+            while ((winIndicator = patch.read()) != -1) {
+                decodeWindow(winIndicator, patch, source.getChannel(), target.getChannel(), digest);
+            }
+        } finally {
+            if (patch != null) patch.close();
+            if (target != null) target.close();
+            if (source != null) source.close();
+        }
+    }
+
+    private static void readHeader(DataInputStream patch) throws IOException {
+        if (patch.readUnsignedByte() != 0xD6 || patch.readUnsignedByte() != 0xC3
+                || patch.readUnsignedByte() != 0xC4 || patch.readUnsignedByte() != 0x00) {
+            throw new CodePushInvalidUpdateException("Patch is not in the VCDIFF format.");
+        }
+
+        int hdrIndicator = patch.readUnsignedByte();
+        if ((hdrIndicator & (VCD_DECOMPRESS | VCD_CODETABLE)) != 0) {
+            throw new CodePushInvalidUpdateException("VCDIFF patches with secondary compression or custom code tables are not supported.");
+        }
+
+        if ((hdrIndicator & VCD_APPHEADER) != 0) {
+            skipFully(patch, readSize(patch));
+        }
+    }
+
+    private static void decodeWindow(int winIndicator, DataInputStream patch, FileChannel source, FileChannel target,
+                                     MessageDigest digest) throws IOException {
+        FileChannel segmentFile = null;
+        long segmentLength = 0;
+        long segmentPosition = 0;
+        if ((winIndicator & VCD_SOURCE) != 0) {
+            segmentFile = source;
+        } else if ((winIndicator & VCD_TARGET) != 0) {
+            segmentFile = target;
+        }
+
+        if (segmentFile != null) {
+            segmentLength = readInteger(patch);
+            segmentPosition = readInteger(patch);
+            if (segmentPosition + segmentLength > segmentFile.size()) {
+                throw new CodePushInvalidUpdateException("VCDIFF window refers to data past the end of its source.");
+            }
+        }
+
+        int deltaLength = readSize(patch);
+        if (deltaLength > 2 * MAX_WINDOW_SIZE) {
+            throw new CodePushInvalidUpdateException("VCDIFF window of " + deltaLength + " bytes is too large.");
+        }
+
+        CountingInputStream deltaHeader = new CountingInputStream(patch);
+        DataInputStream delta = new DataInputStream(deltaHeader);
+        int windowLength = readSize(delta);
+        if (windowLength > MAX_WINDOW_SIZE) {
+            throw new CodePushInvalidUpdateException("VCDIFF target window of " + windowLength + " bytes is too large.");
+        }
+
+        if (delta.readUnsignedByte() != 0) {
+            throw new CodePushInvalidUpdateException("VCDIFF patches with secondary compression are not supported.");
+        }
+
+        int dataLength = readSize(delta);
+        int instructionsLength = readSize(delta);
+        int addressesLength = readSize(delta);
+        byte[] checksum = null;
+        if ((winIndicator & VCD_ADLER32) != 0) {
+            // xdelta3 writes the checksum as 4 bytes and open-vcdiff as an integer, only the remaining
+            // length of the window tells how many bytes it takes.
+            int checksumLength = deltaLength - deltaHeader.count - dataLength - instructionsLength - addressesLength;
+            if (checksumLength < 1 || checksumLength > 5) {
+                throw new CodePushInvalidUpdateException("VCDIFF window has an invalid length.");
+            }
+
+            checksum = new byte[checksumLength];
+            delta.readFully(checksum);
+        }
+
+        if (deltaHeader.count + dataLength + instructionsLength + addressesLength != deltaLength) {
+            throw new CodePushInvalidUpdateException("VCDIFF window has an invalid length.");
+        }
+
+        byte[] data = new byte[dataLength];
+        byte[] instructions = new byte[instructionsLength];
+        byte[] addresses = new byte[addressesLength];
+        patch.readFully(data);
+        patch.readFully(instructions);
+        patch.readFully(addresses);
+
+        byte[] window = new byte[windowLength];
+        new WindowDecoder(data, instructions, addresses, window, segmentFile, segmentPosition, segmentLength).decode();
+
+        if (checksum != null) {
+            Adler32 adler32 = new Adler32();
+            adler32.update(window, 0, windowLength);
+            if (!isChecksumMatching(checksum, adler32.getValue())) {
+                throw new CodePushInvalidUpdateException("VCDIFF target window checksum does not match.");
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(window);
+        long position = target.size();
+        while (buffer.hasRemaining()) {
+            position += target.write(buffer, position);
+        }
+
+        if (digest != null) {
+            digest.update(window);
+        }
+    }
+
+    // A 4 byte checksum may have been written either way, so both readings are accepted.
+    private static boolean isChecksumMatching(byte[] checksum, long actualChecksum) {
+        if (checksum.length == 4 && (ByteBuffer.wrap(checksum).getInt() & 0xffffffffL) == actualChecksum) {
+            return true;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(checksum);
+            return readInteger(buffer) == actualChecksum && !buffer.hasRemaining();
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    private static class WindowDecoder {
+        private final ByteBuffer mData;
+        private final ByteBuffer mInstructions;
+        private final ByteBuffer mAddresses;
+        private final byte[] mWindow;
+        private final FileChannel mSegmentFile;
+        private final long mSegmentPosition;
+        private final long mSegmentLength;
+        private final long[] mNearCache = new long[NEAR_CACHE_SIZE];
+        private final long[] mSameCache = new long[SAME_CACHE_SIZE * 256];
+        private int mNextNearSlot = 0;
+        private int mPosition = 0;
+
+        WindowDecoder(byte[] data, byte[] instructions, byte[] addresses, byte[] window,
+                      FileChannel segmentFile, long segmentPosition, long segmentLength) {
+            mData = ByteBuffer.wrap(data);
+            mInstructions = ByteBuffer.wrap(instructions);
+            mAddresses = ByteBuffer.wrap(addresses);
+            mWindow = window;
+            mSegmentFile = segmentFile;
+            mSegmentPosition = segmentPosition;
+            mSegmentLength = segmentLength;
+        }
+
+        void decode() throws IOException {
+            try {
+                while (mInstructions.hasRemaining()) {
+                    int[] code = DEFAULT_CODE_TABLE[mInstructions.get() & 0xff];
+                    execute(code[0], code[1], code[2]);
+                    execute(code[3], code[4], code[5]);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new CodePushInvalidUpdateException("VCDIFF window ended unexpectedly.");
+            }
+
+            if (mPosition != mWindow.length || mData.hasRemaining() || mAddresses.hasRemaining()) {
+                throw new CodePushInvalidUpdateException("VCDIFF window does not match its length.");
+            }
+        }
+
+        private void execute(int type, int size, int mode) throws IOException {
+            if (type == NOOP) {
+                return;
+            }
+
+            if (size == 0) {
+                size = readSize(mInstructions);
+            }
+
+            if (size > mWindow.length - mPosition) {
+                throw new CodePushInvalidUpdateException("VCDIFF instruction writes past the end of its window.");
+            }
+
+            if (type == ADD) {
+                mData.get(mWindow, mPosition, size);
+            } else if (type == RUN) {
+                byte value = mData.get();
+                for (int i = 0; i < size; i++) {
+                    mWindow[mPosition + i] = value;
+                }
+            } else {
+                copy(decodeAddress(mode), size);
+            }
+
+            mPosition += size;
+        }
+
+        private void copy(long address, int size) throws IOException {
+            int copiedFromSegment = 0;
+            if (address < mSegmentLength) {
+                copiedFromSegment = (int) Math.min(size, mSegmentLength - address);
+                ByteBuffer buffer = ByteBuffer.wrap(mWindow, mPosition, copiedFromSegment);
+                long position = mSegmentPosition + address;
+                while (buffer.hasRemaining()) {
+                    int numBytesRead = mSegmentFile.read(buffer, position);
+                    if (numBytesRead < 0) {
+                        throw new EOFException("VCDIFF source ended unexpectedly.");
+                    }
+
+                    position += numBytesRead;
+                }
+            }
+
+            // Copies from the target window may overlap the bytes being written, which repeats them.
+            int windowAddress = (int) (address + copiedFromSegment - mSegmentLength);
+            for (int i = copiedFromSegment; i < size; i++) {
+                mWindow[mPosition + i] = mWindow[windowAddress++];
+            }
+        }
+
+        private long decodeAddress(int mode) {
+            long here = mSegmentLength + mPosition;
+            long address;
+            if (mode == 0) {
+                address = readInteger(mAddresses);
+            } else if (mode == 1) {
+                address = here - readInteger(mAddresses);
+            } else if (mode < 2 + NEAR_CACHE_SIZE) {
+                address = mNearCache[mode - 2] + readInteger(mAddresses);
+            } else {
+                address = mSameCache[(mode - 2 - NEAR_CACHE_SIZE) * 256 + (mAddresses.get() & 0xff)];
+            }
+
+            if (address < 0 || address >= here) {
+                throw new CodePushInvalidUpdateException("VCDIFF instruction copies from an invalid address.");
+            }
+
+            mNearCache[mNextNearSlot] = address;
+            mNextNearSlot = (mNextNearSlot + 1) % NEAR_CACHE_SIZE;
+            mSameCache[(int) (address % mSameCache.length)] = address;
+            return address;
+        }
+    }
+
+    // Counts the bytes read from the window header, whose length is only known from the delta length.
+    private static class CountingInputStream extends FilterInputStream {
+        int count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count++;
+            }
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int numBytesRead = super.read(buffer, offset, length);
+            if (numBytesRead > 0) {
+                count += numBytesRead;
+            }
+
+            return numBytesRead;
+        }
+    }
+
+    private static int readSize(DataInputStream input) throws IOException {
+        return toSize(readInteger(input));
+    }
+
+    private static int readSize(ByteBuffer buffer) {
+        return toSize(readInteger(buffer));
+    }
+
+    private static int toSize(long value) {
+        if (value > Integer.MAX_VALUE) {
+            throw new CodePushInvalidUpdateException("VCDIFF size is too large.");
+        }
+
+        return (int) value;
+    }
+
+    // Integers are written in base 128 with the most significant digit first, all but the last byte
+    // having their high bit set.
+    private static long readInteger(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 9; i++) {
+            int digit = input.readUnsignedByte();
+            value = (value << 7) | (digit & 0x7f);
+            if ((digit & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new CodePushInvalidUpdateException("VCDIFF integer is too large.");
+    }
+
+    private static long readInteger(ByteBuffer buffer) {
+        long value = 0;
+        for (int i = 0; i < 9; i++) {
+            int digit = buffer.get() & 0xff;
+            value = (value << 7) | (digit & 0x7f);
+            if ((digit & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new CodePushInvalidUpdateException("VCDIFF integer is too large.");
+    }
+
+    private static void skipFully(DataInputStream input, int length) throws IOException {
+        while (length > 0) {
+            int skipped = input.skipBytes(length);
+            if (skipped <= 0) {
+                throw new EOFException("VCDIFF patch ended unexpectedly.");
+            }
+
+            length -= skipped;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.microsoft.codepush.react;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Extracts zip files from their central directory rather than as a stream, so that entries can be
+// inflated on several threads at once, each reading its own part of the archive.
+class ZipExtractor {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    // The end of central directory record is followed by a comment of up to 64 KB, so it is always
+    // within this many bytes from the end of the file.
+    static final int MAX_END_OF_CENTRAL_DIRECTORY_SIZE = END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE;
+    private static final long ZIP64_MARKER = 0xffffffffL;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int BUFFER_SIZE = 1024 * 64;
+
+    static class Entry {
+        String name;
+        int flags;
+        int method;
+        long time;
+        long crc;
+        long compressedSize;
+        long size;
+        long localHeaderOffset;
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    static class CentralDirectory {
+        int entryCount;
+        long offset;
+        long size;
+    }
+
+    // Reads the entries of the zip file from its central directory. Returns null if the file is not a
+    // zip file that can be read this way (e.g. ZIP64 archives).
+    static List<Entry> readEntries(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, MAX_END_OF_CENTRAL_DIRECTORY_SIZE);
+        CentralDirectory centralDirectory = findCentralDirectory(readAt(channel, fileSize - tailSize, tailSize), fileSize);
+        if (centralDirectory == null) {
+            return null;
+        }
+
+        return readEntries(readAt(channel, centralDirectory.offset, (int) centralDirectory.size), centralDirectory.entryCount);
+    }
+
+    // Locates the central directory from the last bytes of a zip file of the given size (see
+    // MAX_END_OF_CENTRAL_DIRECTORY_SIZE). Returns null if they are not the end of a zip file that
+    // can be read this way.
+    static CentralDirectory findCentralDirectory(ByteBuffer tail, long fileSize) {
+        tail.order(ByteOrder.LITTLE_ENDIAN);
+        int tailSize = tail.limit();
+        int recordOffset = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+                    && i + END_OF_CENTRAL_DIRECTORY_SIZE + (tail.getShort(i + 20) & 0xffff) == tailSize) {
+                recordOffset = i;
+                break;
+            }
+        }
+
+        if (recordOffset < 0) {
+            return null;
+        }
+
+        CentralDirectory centralDirectory = new CentralDirectory();
+        centralDirectory.entryCount = tail.getShort(recordOffset + 10) & 0xffff;
+        centralDirectory.size = tail.getInt(recordOffset + 12) & 0xffffffffL;
+        centralDirectory.offset = tail.getInt(recordOffset + 16) & 0xffffffffL;
+        if (centralDirectory.entryCount == 0xffff || centralDirectory.size == ZIP64_MARKER || centralDirectory.offset == ZIP64_MARKER
+                || centralDirectory.offset + centralDirectory.size > fileSize) {
+            return null;
+        }
+
+        return centralDirectory;
+    }
+
+    // Parses the entries of a central directory read in full. Returns null for ZIP64 entries.
+    static List<Entry> readEntries(ByteBuffer centralDirectory, int entryCount) throws IOException {
+        centralDirectory.order(ByteOrder.LITTLE_ENDIAN);
+        int centralDirectorySize = centralDirectory.limit();
+        List<Entry> entries = new ArrayList<>(entryCount);
+        int position = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (position + CENTRAL_DIRECTORY_ENTRY_SIZE > centralDirectorySize
+                    || centralDirectory.getInt(position) != CENTRAL_DIRECTORY_ENTRY_SIGNATURE) {
+                throw new ZipException("Invalid central directory.");
+            }
+
+            Entry entry = new Entry();
+            entry.flags = centralDirectory.getShort(position + 8) & 0xffff;
+            entry.method = centralDirectory.getShort(position + 10) & 0xffff;
+            entry.time = dosToJavaTime(centralDirectory.getShort(position + 14) & 0xffff, centralDirectory.getShort(position + 12) & 0xffff);
+            entry.crc = centralDirectory.getInt(position + 16) & 0xffffffffL;
+            entry.compressedSize = centralDirectory.getInt(position + 20) & 0xffffffffL;
+            entry.size = centralDirectory.getInt(position + 24) & 0xffffffffL;
+            int nameLength = centralDirectory.getShort(position + 28) & 0xffff;
+            int extraLength = centralDirectory.getShort(position + 30) & 0xffff;
+            int commentLength = centralDirectory.getShort(position + 32) & 0xffff;
+            entry.localHeaderOffset = centralDirectory.getInt(position + 42) & 0xffffffffL;
+            if (entry.compressedSize == ZIP64_MARKER || entry.size == ZIP64_MARKER || entry.localHeaderOffset == ZIP64_MARKER) {
+                return null;
+            }
+
+            byte[] name = new byte[nameLength];
+            centralDirectory.position(position + CENTRAL_DIRECTORY_ENTRY_SIZE);
+            centralDirectory.get(name);
+            entry.name = new String(name, "UTF-8");
+            entries.add(entry);
+            position += CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    // Extracts the zip file into destination, replacing anything that was there. Returns false without
+    // touching destination if the zip file can't be read from its central directory, in which case the
+    // caller should fall back to reading it as a stream. See FileUtils.unzipFile for fileHashes.
+    public static boolean extract(File zipFile, String destination, Map<String, String> fileHashes) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(zipFile, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            List<Entry> entries = readEntries(channel);
+            if (entries == null) {
+                return false;
+            }
+
+            File destinationFolder = new File(destination);
+            if (destinationFolder.exists()) {
+                FileUtils.deleteFileOrFolderSilently(destinationFolder);
+            }
+
+            destinationFolder.mkdirs();
+            String destinationFolderCanonicalPath = destinationFolder.getCanonicalPath();
+
+            // Later entries with the same name replace earlier ones, as they would when extracting
+            // the zip file as a stream.
+            Map<String, Entry> fileEntries = new LinkedHashMap<>();
+            Map<File, Entry> folderEntries = new LinkedHashMap<>();
+            Set<File> folders = new LinkedHashSet<>();
+            for (Entry entry : entries) {
+                String relativePath = getRelativePath(entry.name);
+                if (relativePath.isEmpty()) {
+                    continue;
+                }
+
+                File file = new File(destinationFolderCanonicalPath, relativePath);
+                if (entry.isDirectory()) {
+                    folders.add(file);
+                    folderEntries.put(file, entry);
+                } else {
+                    fileEntries.remove(relativePath);
+                    fileEntries.put(relativePath, entry);
+                    folders.add(file.getParentFile());
+                }
+            }
+
+            for (File folder : folders) {
+                folder.mkdirs();
+            }
+
+            final String[] relativePaths = fileEntries.keySet().toArray(new String[fileEntries.size()]);
+            final Entry[] entryArray = fileEntries.values().toArray(new Entry[fileEntries.size()]);
+            final File[] files = new File[entryArray.length];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = new File(destinationFolderCanonicalPath, relativePaths[i]);
+            }
+
+            final String[] hashes = new String[entryArray.length];
+            final boolean isHashingEnabled = fileHashes != null;
+            FileUtils.runInParallel(entryArray.length, new FileUtils.ParallelTask() {
+                @Override
+                public FileUtils.ParallelWorker createWorker() throws NoSuchAlgorithmException {
+                    final MessageDigest messageDigest = isHashingEnabled ? MessageDigest.getInstance("SHA-256") : null;
+                    final byte[] inputBuffer = new byte[BUFFER_SIZE];
+                    final byte[] outputBuffer = new byte[BUFFER_SIZE];
+                    final Inflater inflater = new Inflater(true);
+                    return new FileUtils.ParallelWorker() {
+                        @Override
+                        public void process(int index) throws IOException {
+                            hashes[index] = extractEntry(channel, entryArray[index], files[index], inflater,
+                                    inputBuffer, outputBuffer, messageDigest);
+                        }
+
+                        @Override
+                        public void finish() {
+                            inflater.end();
+                        }
+                    };
+                }
+            });
+
+            if (isHashingEnabled) {
+                for (int i = 0; i < relativePaths.length; i++) {
+                    fileHashes.put(relativePaths[i], hashes[i]);
+                }
+            }
+
+            // Folders get their times last, as creating their contents changes them.
+            for (Map.Entry<File, Entry> folderEntry : folderEntries.entrySet()) {
+                if (folderEntry.getValue().time > 0) {
+                    folderEntry.getKey().setLastModified(folderEntry.getValue().time);
+                }
+            }
+
+            return true;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // Returns the hash of the extracted file, or null if messageDigest is null.
+    private static String extractEntry(FileChannel channel, Entry entry, File file, Inflater inflater,
+                                       byte[] inputBuffer, byte[] outputBuffer, MessageDigest messageDigest) throws IOException {
+        if ((entry.flags & FLAG_ENCRYPTED) != 0) {
+            throw new ZipException("Encrypted zip entries are not supported: " + entry.name);
+        }
+
+        if (entry.method != METHOD_STORED && entry.method != METHOD_DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for zip entry " + entry.name);
+        }
+
+        ByteBuffer localHeader = readAt(channel, entry.localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for zip entry " + entry.name);
+        }
+
+        long dataOffset = entry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE
+                + (localHeader.getShort(26) & 0xffff) + (localHeader.getShort(28) & 0xffff);
+
+        FileOutputStream fout = new FileOutputStream(file);
+        try {
+            if (entry.method == METHOD_STORED && messageDigest == null) {
+                // Nothing to compute, let the kernel copy the data.
+                FileChannel fileChannel = fout.getChannel();
+                long position = 0;
+                while (position < entry.size) {
+                    long bytesTransferred = channel.transferTo(dataOffset + position, entry.size - position, fileChannel);
+                    if (bytesTransferred <= 0) {
+                        throw new EOFException("Unexpected end of zip entry " + entry.name);
+                    }
+
+                    position += bytesTransferred;
+                }
+            } else {
+                CRC32 crc = new CRC32();
+                if (messageDigest != null) {
+                    messageDigest.reset();
+                }
+
+                long compressedPosition = dataOffset;
+                long compressedRemaining = entry.compressedSize;
+                long bytesWritten = 0;
+                if (entry.method == METHOD_STORED) {
+                    while (compressedRemaining > 0) {
+                        int bytesRead = (int) Math.min(inputBuffer.length, compressedRemaining);
+                        readAt(channel, compressedPosition, inputBuffer, bytesRead);
+                        compressedPosition += bytesRead;
+                        compressedRemaining -= bytesRead;
+                        fout.write(inputBuffer, 0, bytesRead);
+                        crc.update(inputBuffer, 0, bytesRead);
+                        if (messageDigest != null) {
+                            messageDigest.update(inputBuffer, 0, bytesRead);
+                        }
+
+                        bytesWritten += bytesRead;
+                    }
+                } else {
+                    inflater.reset();
+                    boolean isPaddingAdded = false;
+                    while (!inflater.finished()) {
+                        if (inflater.needsInput()) {
+                            if (compressedRemaining > 0) {
+                                int bytesRead = (int) Math.min(inputBuffer.length, compressedRemaining);
+                                readAt(channel, compressedPosition, inputBuffer, bytesRead);
+                                compressedPosition += bytesRead;
+                                compressedRemaining -= bytesRead;
+                                inflater.setInput(inputBuffer, 0, bytesRead);
+                            } else if (!isPaddingAdded) {
+                                // Raw inflaters may need an extra byte to detect the end of the data.
+                                inputBuffer[0] = 0;
+                                inflater.setInput(inputBuffer, 0, 1);
+                                isPaddingAdded = true;
+                            } else {
+                                throw new EOFException("Unexpected end of zip entry " + entry.name);
+                            }
+                        }
+
+                        int bytesInflated;
+                        try {
+                            bytesInflated = inflater.inflate(outputBuffer);
+                        } catch (DataFormatException e) {
+                            throw new ZipException("Invalid data in zip entry " + entry.name + ": " + e.getMessage());
+                        }
+
+                        if (bytesInflated == 0 && inflater.needsDictionary()) {
+                            throw new ZipException("Invalid data in zip entry " + entry.name);
+                        }
+
+                        fout.write(outputBuffer, 0, bytesInflated);
+                        crc.update(outputBuffer, 0, bytesInflated);
+                        if (messageDigest != null) {
+                            messageDigest.update(outputBuffer, 0, bytesInflated);
+                        }
+
+                        bytesWritten += bytesInflated;
+                    }
+                }
+
+                if (bytesWritten != entry.size || crc.getValue() != entry.crc) {
+                    throw new ZipException("Invalid size or CRC for zip entry " + entry.name);
+                }
+            }
+        } finally {
+            fout.close();
+        }
+
+        if (entry.time > 0) {
+            file.setLastModified(entry.time);
+        }
+
+        return messageDigest != null ? CodePushUpdateUtils.getHashString(messageDigest.digest()) : null;
+    }
+
+    // Resolves "." and ".." in the entry name without touching the file system, which is enough as
+    // extraction never creates symbolic links. Names that would end up outside of the destination
+    // folder are rejected, just like FileUtils.validateFileName does.
+    static String getRelativePath(String entryName) {
+        List<String> pathComponents = new ArrayList<>();
+        for (String pathComponent : entryName.split("/")) {
+            if (pathComponent.isEmpty() || pathComponent.equals(".")) {
+                continue;
+            }
+
+            if (pathComponent.equals("..")) {
+                if (pathComponents.isEmpty()) {
+                    throw new IllegalStateException("File is outside extraction target directory.");
+                }
+
+                pathComponents.remove(pathComponents.size() - 1);
+            } else {
+                pathComponents.add(pathComponent);
+            }
+        }
+
+        StringBuilder relativePath = new StringBuilder();
+        for (String pathComponent : pathComponents) {
+            if (relativePath.length() > 0) {
+                relativePath.append('/');
+            }
+
+            relativePath.append(pathComponent);
+        }
+
+        return relativePath.toString();
+    }
+
+    private static long dosToJavaTime(int dosDate, int dosTime) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((dosDate >> 9) & 0x7f) + 1980, ((dosDate >> 5) & 0x0f) - 1, dosDate & 0x1f,
+                (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime & 0x1f) << 1);
+        return calendar.getTimeInMillis();
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        byte[] data = new byte[length];
+        readAt(channel, position, data, length);
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Positional reads leave the channel's position alone, so several threads can read at once.
+    private static void readAt(FileChannel channel, long position, byte[] data, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of zip file.");
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ChunkedDownloaderTest {
+
+    // With equal minimum and maximum sizes, every chunk but the last has that size, wherever the
+    // rolling hash would have cut.
+    private static final int CHUNK_SIZE = 4 * 1024;
+    private static final String BUNDLE_PATH = "index.android.bundle";
+    private static final String SIGNATURE_QUERY = "sv=2019-02-02&sig=abc%2Bdef";
+
+    private TestFileServer mServer;
+    private File mLocalPackageFolder;
+    private File mUnzippedFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new TestFileServer();
+        mLocalPackageFolder = TestUtils.createTempFolder();
+        mUnzippedFolder = TestUtils.createTempFolder();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        FileUtils.deleteDirectoryAtPath(mLocalPackageFolder.getPath());
+        FileUtils.deleteDirectoryAtPath(mUnzippedFolder.getPath());
+    }
+
+    @Test
+    public void fetchesOnlyTheChangedChunks() throws Exception {
+        byte[] localBundle = TestUtils.randomBytes(16 * CHUNK_SIZE, 1);
+        TestUtils.writeFile(new File(mLocalPackageFolder, BUNDLE_PATH), localBundle);
+        // One byte changed in the fifth chunk, and a shorter last chunk appended.
+        byte[] bundle = new byte[localBundle.length + 1000];
+        System.arraycopy(localBundle, 0, bundle, 0, localBundle.length);
+        System.arraycopy(TestUtils.randomBytes(1000, 2), 0, bundle, localBundle.length, 1000);
+        bundle[4 * CHUNK_SIZE + 100]++;
+        byte[] manifest = publishPackage(bundle);
+
+        Map<String, String> fileHashes = download();
+
+        assertArrayEquals(bundle, TestUtils.readFile(new File(mUnzippedFolder, BUNDLE_PATH)));
+        assertEquals(TestUtils.sha256(bundle, 0, bundle.length), fileHashes.get(BUNDLE_PATH));
+        assertEquals(CHUNK_SIZE + 1000, mServer.getServedBytes() - manifest.length);
+        assertEquals(Collections.singletonList("bytes=" + 4 * CHUNK_SIZE + "-" + (5 * CHUNK_SIZE - 1)),
+                mServer.getRequestedRanges().subList(1, 2));
+    }
+
+    @Test
+    public void fetchesEachFileOnceWithoutRanges() throws Exception {
+        byte[] localBundle = TestUtils.randomBytes(16 * CHUNK_SIZE, 3);
+        TestUtils.writeFile(new File(mLocalPackageFolder, BUNDLE_PATH), localBundle);
+        byte[] bundle = localBundle.clone();
+        bundle[CHUNK_SIZE]++;
+        bundle[8 * CHUNK_SIZE]++;
+        bundle[12 * CHUNK_SIZE]++;
+        publishPackage(bundle);
+        mServer.setRangeSupported(false);
+
+        download();
+
+        assertArrayEquals(bundle, TestUtils.readFile(new File(mUnzippedFolder, BUNDLE_PATH)));
+        // The manifest, then the whole bundle once.
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void signsChunkRequestsLikeTheDownloadUrl() throws Exception {
+        byte[] localBundle = TestUtils.randomBytes(16 * CHUNK_SIZE, 4);
+        TestUtils.writeFile(new File(mLocalPackageFolder, BUNDLE_PATH), localBundle);
+        byte[] bundle = localBundle.clone();
+        bundle[CHUNK_SIZE]++;
+        publishPackage(bundle);
+        mServer.setRequiredQuery(SIGNATURE_QUERY);
+
+        download(new URL(mServer.getUrl("/v2.zip") + "?" + SIGNATURE_QUERY));
+
+        assertArrayEquals(bundle, TestUtils.readFile(new File(mUnzippedFolder, BUNDLE_PATH)));
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void leavesPackagesWithoutManifestToTheFullDownload() throws Exception {
+        assertNull(ChunkedDownloader.create(new DefaultTransport(), mServer.getUrl("/v2.zip" + CodePushConstants.CHUNK_MANIFEST_URL_SUFFIX),
+                Collections.singletonList(mLocalPackageFolder.getPath()), null, TestUtils.NO_PROGRESS));
+    }
+
+    // Serves the bundle and the chunk manifest of a package made of it, and returns the manifest.
+    private byte[] publishPackage(byte[] bundle) throws Exception {
+        JSONArray chunks = new JSONArray();
+        for (int offset = 0; offset < bundle.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, bundle.length - offset);
+            chunks.put(new JSONObject()
+                    .put("length", length)
+                    .put("hash", TestUtils.sha256(bundle, offset, length)));
+        }
+
+        JSONObject file = new JSONObject()
+                .put("path", BUNDLE_PATH)
+                .put("url", "files/" + BUNDLE_PATH)
+                .put("size", bundle.length)
+                .put("hash", TestUtils.sha256(bundle, 0, bundle.length))
+                .put("chunks", chunks);
+        JSONObject manifest = new JSONObject()
+                .put("minChunkSize", CHUNK_SIZE)
+                .put("averageChunkSize", CHUNK_SIZE)
+                .put("maxChunkSize", CHUNK_SIZE)
+                .put("files", new JSONArray().put(file));
+        byte[] manifestBytes = manifest.toString().getBytes("UTF-8");
+        mServer.putFile("/v2.zip" + CodePushConstants.CHUNK_MANIFEST_URL_SUFFIX, manifestBytes);
+        mServer.putFile("/files/" + BUNDLE_PATH, bundle);
+        return manifestBytes;
+    }
+
+    private Map<String, String> download() throws Exception {
+        return download(mServer.getUrl("/v2.zip"));
+    }
+
+    private Map<String, String> download(URL downloadUrl) throws Exception {
+        ChunkedDownloader chunkedDownloader = ChunkedDownloader.create(new DefaultTransport(),
+                ChunkedDownloader.getManifestUrl(downloadUrl),
+                Collections.singletonList(mLocalPackageFolder.getPath()), null, TestUtils.NO_PROGRESS);
+        assertNotNull(chunkedDownloader);
+        Map<String, String> fileHashes = new HashMap<>();
+        chunkedDownloader.download(mUnzippedFolder.getPath(), fileHashes);
+        return fileHashes;
+    }
+}
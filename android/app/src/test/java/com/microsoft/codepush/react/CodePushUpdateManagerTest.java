@@ -0,0 +1,154 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodePushUpdateManagerTest {
+
+    private static final String PATH_PREFIX = "Common";
+    private static final String PACKAGE_HASH = "3f9a8e1c";
+    private static final String BUNDLE_FILE_NAME = "index.android.bundle";
+
+    private TestFileServer mServer;
+    private File mDocumentsFolder;
+    private CodePushUpdateManager mUpdateManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new TestFileServer();
+        // StatFs reports no free space off the device. Without the total size of the package in the
+        // answer to its range request, the storage preflight lets the download go ahead.
+        mServer.setSizeHidden(true);
+        mDocumentsFolder = TestUtils.createTempFolder();
+        mUpdateManager = new CodePushUpdateManager(mDocumentsFolder.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        FileUtils.deleteDirectoryAtPath(mDocumentsFolder.getPath());
+    }
+
+    @Test
+    public void resumesInterruptedDownloads() throws Exception {
+        byte[] bundle = TestUtils.randomBytes(3 * 1024 * 1024, 1);
+        mServer.putFile("/" + BUNDLE_FILE_NAME, bundle);
+        mServer.dropNextResponseAfter(1024 * 1024);
+        JSONObject updatePackage = createUpdatePackage();
+
+        downloadInterruptedPackage(updatePackage);
+        long partialLength = getDownloadFile().length();
+        assertTrue(partialLength > 0);
+        mServer.getRequestedRanges().clear();
+        mUpdateManager.downloadPackage(updatePackage, BUNDLE_FILE_NAME, TestUtils.NO_PROGRESS, null, PATH_PREFIX);
+
+        assertTrue(mServer.getRequestedRanges().contains("bytes=" + partialLength + "-"));
+        assertArrayEquals(bundle, TestUtils.readFile(getDownloadedBundle()));
+        assertFalse(getDownloadFile().exists());
+    }
+
+    @Test
+    public void restartsDownloadsOfChangedPackages() throws Exception {
+        mServer.putFile("/" + BUNDLE_FILE_NAME, TestUtils.randomBytes(3 * 1024 * 1024, 2));
+        mServer.dropNextResponseAfter(1024 * 1024);
+        JSONObject updatePackage = createUpdatePackage();
+
+        downloadInterruptedPackage(updatePackage);
+        byte[] bundle = TestUtils.randomBytes(3 * 1024 * 1024, 3);
+        mServer.putFile("/" + BUNDLE_FILE_NAME, bundle);
+        mUpdateManager.downloadPackage(updatePackage, BUNDLE_FILE_NAME, TestUtils.NO_PROGRESS, null, PATH_PREFIX);
+
+        assertArrayEquals(bundle, TestUtils.readFile(getDownloadedBundle()));
+    }
+
+    @Test
+    public void restartsDownloadsThatDontMatchTheirState() throws Exception {
+        byte[] bundle = TestUtils.randomBytes(3 * 1024 * 1024, 4);
+        mServer.putFile("/" + BUNDLE_FILE_NAME, bundle);
+        mServer.dropNextResponseAfter(1024 * 1024);
+        JSONObject updatePackage = createUpdatePackage();
+
+        downloadInterruptedPackage(updatePackage);
+        // As if the app had been killed while writing more of the package.
+        FileOutputStream downloadStream = new FileOutputStream(getDownloadFile(), true);
+        try {
+            downloadStream.write(new byte[1000]);
+        } finally {
+            downloadStream.close();
+        }
+
+        mServer.getRequestedRanges().clear();
+        mUpdateManager.downloadPackage(updatePackage, BUNDLE_FILE_NAME, TestUtils.NO_PROGRESS, null, PATH_PREFIX);
+
+        assertTrue(mServer.getRequestedRanges().contains(null));
+        assertArrayEquals(bundle, TestUtils.readFile(getDownloadedBundle()));
+    }
+
+    @Test
+    public void decompressesBundlesCompressedOnTheirOwn() throws Exception {
+        byte[] bundle = TestUtils.randomBytes(256 * 1024, 5);
+        mServer.putFile("/" + BUNDLE_FILE_NAME, gzip(bundle));
+
+        mUpdateManager.downloadPackage(createUpdatePackage(), BUNDLE_FILE_NAME, TestUtils.NO_PROGRESS, null, PATH_PREFIX);
+
+        assertArrayEquals(bundle, TestUtils.readFile(getDownloadedBundle()));
+    }
+
+    @Test
+    public void decompressesStreamedBundlesCompressedOnTheirOwn() throws Exception {
+        byte[] bundle = TestUtils.randomBytes(256 * 1024, 6);
+        mServer.putFile("/" + BUNDLE_FILE_NAME, gzip(bundle));
+        mUpdateManager.setStreamingExtractionEnabled(true);
+
+        mUpdateManager.downloadPackage(createUpdatePackage(), BUNDLE_FILE_NAME, TestUtils.NO_PROGRESS, null, PATH_PREFIX);
+
+        assertArrayEquals(bundle, TestUtils.readFile(getDownloadedBundle()));
+    }
+
+    private static byte[] gzip(byte[] data) throws Exception {
+        ByteArrayOutputStream compressedData = new ByteArrayOutputStream();
+        GZIPOutputStream gzipStream = new GZIPOutputStream(compressedData);
+        try {
+            gzipStream.write(data);
+        } finally {
+            gzipStream.close();
+        }
+
+        return compressedData.toByteArray();
+    }
+
+    private JSONObject createUpdatePackage() throws Exception {
+        return new JSONObject()
+                .put(CodePushConstants.PACKAGE_HASH_KEY, PACKAGE_HASH)
+                .put(CodePushConstants.DOWNLOAD_URL_KEY, mServer.getUrl("/" + BUNDLE_FILE_NAME).toString());
+    }
+
+    private void downloadInterruptedPackage(JSONObject updatePackage) throws Exception {
+        try {
+            mUpdateManager.downloadPackage(updatePackage, BUNDLE_FILE_NAME, TestUtils.NO_PROGRESS, null, PATH_PREFIX);
+            fail("The download should have been interrupted.");
+        } catch (Exception e) {
+            // Expected, the server broke the connection.
+        }
+    }
+
+    private File getDownloadFile() {
+        return new File(mDocumentsFolder, CodePushConstants.CODE_PUSH_FOLDER_PREFIX + "/" + PATH_PREFIX + "/" + CodePushConstants.DOWNLOAD_FILE_NAME);
+    }
+
+    private File getDownloadedBundle() {
+        return new File(mUpdateManager.getPackageFolderPath(PACKAGE_HASH, PATH_PREFIX), BUNDLE_FILE_NAME);
+    }
+}
@@ -0,0 +1,148 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CodePushUpdateUtilsTest {
+
+    private File mPackageFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mPackageFolder = TestUtils.createTempFolder();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteDirectoryAtPath(mPackageFolder.getPath());
+    }
+
+    @Test
+    public void hashesFoldersLikeTheSequentialManifest() throws Exception {
+        createPackage(1000, 16 * 1024, 1);
+        TestUtils.writeFile(new File(mPackageFolder, "assets/.DS_Store"), new byte[10]);
+        TestUtils.writeFile(new File(mPackageFolder, "__MACOSX/assets/image.png"), new byte[10]);
+        Map<String, String> expectedFileHashes = new HashMap<>();
+        String expectedHash = hashFolderSequentially(mPackageFolder, "", expectedFileHashes);
+
+        Map<String, String> fileHashes = CodePushUpdateUtils.verifyFolderHash(mPackageFolder.getPath(), expectedHash, null);
+
+        assertEquals(expectedFileHashes, fileHashes);
+    }
+
+    @Test
+    public void rejectsFoldersWithAnyFileChanged() throws Exception {
+        createPackage(1000, 16 * 1024, 2);
+        String expectedHash = hashFolderSequentially(mPackageFolder, "", new HashMap<String, String>());
+        File changedFile = new File(mPackageFolder, "assets/7/image-789.png");
+        byte[] contents = TestUtils.readFile(changedFile);
+        contents[contents.length / 2]++;
+        TestUtils.writeFile(changedFile, contents);
+
+        try {
+            CodePushUpdateUtils.verifyFolderHash(mPackageFolder.getPath(), expectedHash);
+            fail("The changed file should have failed the integrity check.");
+        } catch (CodePushInvalidUpdateException e) {
+            // Expected.
+        }
+    }
+
+    // Compares the folder hashing with the sequential one it replaced on packages of 100, 1,000 and
+    // 10,000 files. Run with "./gradlew test -PcodePushBenchmark".
+    @Test
+    public void benchmarkFolderHashing() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("codepush.benchmark"));
+        int[] fileCounts = {100, 1000, 10000};
+        for (int fileCount : fileCounts) {
+            FileUtils.deleteDirectoryAtPath(mPackageFolder.getPath());
+            mPackageFolder.mkdirs();
+            createPackage(fileCount, 32 * 1024, fileCount);
+            // Warms up the file system cache and the JIT, and gives the expected hash.
+            String expectedHash = hashFolderSequentially(mPackageFolder, "", new HashMap<String, String>());
+            CodePushUpdateUtils.verifyFolderHash(mPackageFolder.getPath(), expectedHash);
+
+            long startTime = System.nanoTime();
+            hashFolderSequentially(mPackageFolder, "", new HashMap<String, String>());
+            long sequentialMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            startTime = System.nanoTime();
+            CodePushUpdateUtils.verifyFolderHash(mPackageFolder.getPath(), expectedHash);
+            long parallelMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            System.out.println("Hashed " + fileCount + " files in " + parallelMillis + " ms, "
+                    + sequentialMillis + " ms sequentially, on " + Runtime.getRuntime().availableProcessors() + " processors.");
+        }
+    }
+
+    // Writes files of random sizes up to maxFileSize, a hundred of them per folder.
+    private void createPackage(int fileCount, int maxFileSize, long seed) throws Exception {
+        Random random = new Random(seed);
+        TestUtils.writeFile(new File(mPackageFolder, "index.android.bundle"), TestUtils.randomBytes(maxFileSize, seed));
+        for (int i = 1; i < fileCount; i++) {
+            File file = new File(mPackageFolder, "assets/" + (i / 100) + "/image-" + i + ".png");
+            TestUtils.writeFile(file, TestUtils.randomBytes(random.nextInt(maxFileSize), random.nextLong()));
+        }
+    }
+
+    // The folder hash as it was computed before files were hashed in parallel: one file after the
+    // other, each with a digest of its own, written out through BigInteger.
+    private static String hashFolderSequentially(File folder, String pathPrefix, Map<String, String> fileHashes) throws Exception {
+        for (File file : folder.listFiles()) {
+            String relativePath = (pathPrefix.isEmpty() ? "" : (pathPrefix + "/")) + file.getName();
+            if (CodePushUpdateUtils.isHashIgnored(relativePath)) {
+                continue;
+            }
+
+            if (file.isDirectory()) {
+                hashFolderSequentially(file, relativePath, fileHashes);
+            } else {
+                fileHashes.put(relativePath, computeHash(new FileInputStream(file)));
+            }
+        }
+
+        if (!pathPrefix.isEmpty()) {
+            return null;
+        }
+
+        List<String> manifest = new ArrayList<>();
+        for (Map.Entry<String, String> fileHash : fileHashes.entrySet()) {
+            manifest.add(fileHash.getKey() + ":" + fileHash.getValue());
+        }
+
+        Collections.sort(manifest);
+        String manifestString = new JSONArray(manifest).toString().replace("\\/", "/");
+        return computeHash(new ByteArrayInputStream(manifestString.getBytes()));
+    }
+
+    private static String computeHash(InputStream dataStream) throws Exception {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        DigestInputStream digestInputStream = new DigestInputStream(dataStream, messageDigest);
+        try {
+            byte[] byteBuffer = new byte[1024 * 8];
+            while (digestInputStream.read(byteBuffer) != -1) ;
+        } finally {
+            digestInputStream.close();
+        }
+
+        return String.format("%064x", new BigInteger(1, messageDigest.digest()));
+    }
+}
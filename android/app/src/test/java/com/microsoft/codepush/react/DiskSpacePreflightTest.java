@@ -0,0 +1,71 @@
+package com.microsoft.codepush.react;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiskSpacePreflightTest {
+
+    private static final int FILE_SIZE = 256 * 1024;
+    private static final int FILE_COUNT = 4;
+
+    private TestFileServer mServer;
+    private byte[] mPackage;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new TestFileServer();
+        mPackage = createPackage();
+        mServer.putFile("/v2.zip", mPackage);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void addsTheExtractedFilesFromTheEndOfThePackage() throws Exception {
+        long requiredBytes = DiskSpacePreflight.estimateRequiredBytes(new DefaultTransport(), mServer.getUrl("/v2.zip"), 0, true, null);
+
+        assertEquals(mPackage.length + FILE_COUNT * (FILE_SIZE + DiskSpacePreflight.FILE_SYSTEM_BLOCK_SIZE), requiredBytes);
+        assertTrue(mServer.getServedBytes() <= ZipExtractor.MAX_END_OF_CENTRAL_DIRECTORY_SIZE);
+    }
+
+    @Test
+    public void leavesPackagesAloneWhenRangesAreNotSupported() throws Exception {
+        mServer.setRangeSupported(false);
+
+        long requiredBytes = DiskSpacePreflight.estimateRequiredBytes(new DefaultTransport(), mServer.getUrl("/v2.zip"), 0, true, null);
+
+        assertEquals(mPackage.length, requiredBytes);
+        // The HEAD request only, no GET request that would start sending the whole package.
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue(mServer.getRequestedRanges().isEmpty());
+    }
+
+    // Stored files, so that the package is as large as the files it holds.
+    private static byte[] createPackage() throws Exception {
+        ByteArrayOutputStream packageData = new ByteArrayOutputStream();
+        ZipOutputStream zipStream = new ZipOutputStream(packageData);
+        try {
+            zipStream.setLevel(0);
+            for (int i = 0; i < FILE_COUNT; i++) {
+                zipStream.putNextEntry(new ZipEntry("CodePush/assets/image-" + i + ".png"));
+                zipStream.write(TestUtils.randomBytes(FILE_SIZE, i));
+                zipStream.closeEntry();
+            }
+        } finally {
+            zipStream.close();
+        }
+
+        return packageData.toByteArray();
+    }
+}
@@ -0,0 +1,148 @@
+package com.microsoft.codepush.react;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadMirrorsTest {
+
+    private static final String PACKAGE_PATH = "/packages/v2.zip";
+    private static final long HEDGE_DELAY_MILLIS = DownloadMirrors.HEDGE_DELAY_MILLIS;
+
+    private TestFileServer mPrimaryServer;
+    private TestFileServer mMirrorServer;
+    private DownloadMirrors mDownloadMirrors;
+    private byte[] mPackage;
+
+    @Before
+    public void setUp() throws Exception {
+        mPrimaryServer = new TestFileServer();
+        mMirrorServer = new TestFileServer();
+        mPackage = TestUtils.randomBytes(64 * 1024, 1);
+        mPrimaryServer.putFile(PACKAGE_PATH, mPackage);
+        mMirrorServer.putFile(PACKAGE_PATH, mPackage);
+        mDownloadMirrors = new DownloadMirrors(Collections.singletonList(mMirrorServer.getUrl("/").toString()));
+    }
+
+    @After
+    public void tearDown() {
+        mPrimaryServer.stop();
+        mMirrorServer.stop();
+    }
+
+    @Test
+    public void fallsBackToTheMirrorOnServerErrors() throws Exception {
+        mPrimaryServer.setStatusCode(HttpURLConnection.HTTP_UNAVAILABLE);
+
+        HttpURLConnection connection = mDownloadMirrors.connect(new DefaultTransport(), getDownloadUrl(), "identity");
+
+        assertMirrorResponse(connection);
+        assertEquals(1, mPrimaryServer.getRequestCount());
+    }
+
+    @Test
+    public void fallsBackToTheMirrorWhenTheServerIsDown() throws Exception {
+        URL downloadUrl = getDownloadUrl();
+        mPrimaryServer.stop();
+
+        assertMirrorResponse(mDownloadMirrors.connect(new DefaultTransport(), downloadUrl, "identity"));
+    }
+
+    @Test
+    public void returnsTheFirstFailureWhenAllHostsFail() throws Exception {
+        mPrimaryServer.setStatusCode(HttpURLConnection.HTTP_UNAVAILABLE);
+        mMirrorServer.setStatusCode(HttpURLConnection.HTTP_UNAVAILABLE);
+
+        HttpURLConnection connection = mDownloadMirrors.connect(new DefaultTransport(), getDownloadUrl(), "identity");
+        try {
+            assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+
+        assertEquals(1, mPrimaryServer.getRequestCount());
+        assertEquals(1, mMirrorServer.getRequestCount());
+    }
+
+    @Test
+    public void hedgesSlowHostsUntilOneResponds() throws Exception {
+        TestFileServer slowMirrorServer = new TestFileServer();
+        try {
+            slowMirrorServer.putFile(PACKAGE_PATH, mPackage);
+            mPrimaryServer.setResponseDelay(10 * 1000);
+            slowMirrorServer.setResponseDelay(10 * 1000);
+            DownloadMirrors downloadMirrors = new DownloadMirrors(Arrays.asList(
+                    slowMirrorServer.getUrl("/").toString(), mMirrorServer.getUrl("/").toString()));
+
+            long startTime = System.nanoTime();
+            assertMirrorResponse(downloadMirrors.connect(new DefaultTransport(), getDownloadUrl(), "identity"));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+            // The primary host, then the slow mirror after one hedge delay, then the fast mirror after another.
+            assertTrue(elapsedMillis >= 2 * HEDGE_DELAY_MILLIS);
+            assertTrue(elapsedMillis < 10 * 1000);
+            assertEquals(1, mPrimaryServer.getRequestCount());
+            assertEquals(1, slowMirrorServer.getRequestCount());
+            assertEquals(1, mMirrorServer.getRequestCount());
+        } finally {
+            slowMirrorServer.stop();
+        }
+    }
+
+    @Test
+    public void asksTheFastestHostFirstNextTime() throws Exception {
+        mPrimaryServer.setResponseDelay(10 * 1000);
+        assertMirrorResponse(mDownloadMirrors.connect(new DefaultTransport(), getDownloadUrl(), "identity"));
+
+        // The primary host was cancelled after the mirror responded, which leaves it slower than the mirror.
+        List<URL> candidateUrls = mDownloadMirrors.getCandidateUrls(getDownloadUrl());
+        assertEquals(Arrays.asList(mMirrorServer.getUrl(PACKAGE_PATH + "?signature=abc"), getDownloadUrl()), candidateUrls);
+
+        long startTime = System.nanoTime();
+        assertMirrorResponse(mDownloadMirrors.connect(new DefaultTransport(), getDownloadUrl(), "identity"));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < HEDGE_DELAY_MILLIS);
+        assertEquals(1, mPrimaryServer.getRequestCount());
+        assertEquals(2, mMirrorServer.getRequestCount());
+    }
+
+    // Signed download URLs keep their query on the mirrors.
+    private URL getDownloadUrl() throws Exception {
+        return new URL(mPrimaryServer.getUrl(PACKAGE_PATH) + "?signature=abc");
+    }
+
+    private void assertMirrorResponse(HttpURLConnection connection) throws Exception {
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            assertEquals(mMirrorServer.getUrl(PACKAGE_PATH + "?signature=abc"), connection.getURL());
+            InputStream inputStream = connection.getInputStream();
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8 * 1024];
+                int numBytesRead;
+                while ((numBytesRead = inputStream.read(buffer)) != -1) {
+                    body.write(buffer, 0, numBytesRead);
+                }
+
+                assertArrayEquals(mPackage, body.toByteArray());
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.microsoft.codepush.react;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileUtilsTest {
+
+    @Test
+    public void keepsTheModificationTimeOfCopies() throws Exception {
+        File sourceFolder = TestUtils.createTempFolder();
+        File destinationFolder = TestUtils.createTempFolder();
+        try {
+            File sourceFile = new File(sourceFolder, "assets/image.png");
+            byte[] contents = TestUtils.randomBytes(64 * 1024, 1);
+            TestUtils.writeFile(sourceFile, contents);
+            assertTrue(sourceFile.setLastModified(1500000000000L));
+
+            FileUtils.copyDirectoryContents(sourceFolder.getPath(), destinationFolder.getPath());
+
+            File destinationFile = new File(destinationFolder, "assets/image.png");
+            assertArrayEquals(contents, TestUtils.readFile(destinationFile));
+            assertEquals(sourceFile.lastModified(), destinationFile.lastModified());
+        } finally {
+            FileUtils.deleteDirectoryAtPath(sourceFolder.getPath());
+            FileUtils.deleteDirectoryAtPath(destinationFolder.getPath());
+        }
+    }
+
+    @Test
+    public void runsEveryItemOnce() throws Exception {
+        final AtomicIntegerArray runCounts = new AtomicIntegerArray(1000);
+        final AtomicInteger workerCount = new AtomicInteger();
+        final AtomicInteger finishedWorkerCount = new AtomicInteger();
+        FileUtils.runInParallel(runCounts.length(), new FileUtils.ParallelTask() {
+            @Override
+            public FileUtils.ParallelWorker createWorker() {
+                workerCount.incrementAndGet();
+                return new FileUtils.ParallelWorker() {
+                    @Override
+                    public void process(int index) {
+                        runCounts.incrementAndGet(index);
+                    }
+
+                    @Override
+                    public void finish() {
+                        finishedWorkerCount.incrementAndGet();
+                    }
+                };
+            }
+        });
+
+        for (int i = 0; i < runCounts.length(); i++) {
+            assertEquals(1, runCounts.get(i));
+        }
+
+        assertEquals(workerCount.get(), finishedWorkerCount.get());
+    }
+
+    @Test
+    public void runsJobsWithinJobs() throws Exception {
+        final AtomicInteger runCount = new AtomicInteger();
+        int count = 4 * Runtime.getRuntime().availableProcessors();
+        FileUtils.runInParallel(count, new FileUtils.ParallelTask() {
+            @Override
+            public FileUtils.ParallelWorker createWorker() {
+                return new FileUtils.ParallelWorker() {
+                    @Override
+                    public void process(int index) throws IOException {
+                        FileUtils.runInParallel(100, new FileUtils.ParallelTask() {
+                            @Override
+                            public FileUtils.ParallelWorker createWorker() {
+                                return new FileUtils.ParallelWorker() {
+                                    @Override
+                                    public void process(int index) {
+                                        runCount.incrementAndGet();
+                                    }
+                                };
+                            }
+                        });
+                    }
+                };
+            }
+        });
+
+        assertEquals(count * 100, runCount.get());
+    }
+
+    @Test
+    public void rethrowsTheFirstFailure() throws Exception {
+        try {
+            FileUtils.runInParallel(1000, new FileUtils.ParallelTask() {
+                @Override
+                public FileUtils.ParallelWorker createWorker() {
+                    return new FileUtils.ParallelWorker() {
+                        @Override
+                        public void process(int index) throws IOException {
+                            if (index == 500) {
+                                throw new IOException("Item " + index + " failed.");
+                            }
+                        }
+                    };
+                }
+            });
+            fail("The failure should have been rethrown.");
+        } catch (IOException e) {
+            assertEquals("Item 500 failed.", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.microsoft.codepush.react;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentedDownloaderTest {
+
+    private static final int SEGMENT_SIZE = (int) CodePushConstants.DOWNLOAD_SEGMENT_MIN_SIZE;
+
+    private TestFileServer mServer;
+    private File mDownloadFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new TestFileServer();
+        mDownloadFile = File.createTempFile("download", ".zip");
+        mDownloadFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        mDownloadFile.delete();
+    }
+
+    @Test
+    public void assemblesSegmentsInPlace() throws Exception {
+        byte[] contents = TestUtils.randomBytes(4 * SEGMENT_SIZE + 123, 1);
+        mServer.putFile("/package.zip", contents);
+
+        assertTrue(SegmentedDownloader.download(new DefaultTransport(), mServer.getUrl("/package.zip"), mDownloadFile, 4, TestUtils.NO_PROGRESS));
+
+        assertArrayEquals(contents, TestUtils.readFile(mDownloadFile));
+        // The one byte probe, then a range per segment.
+        assertEquals(5, mServer.getRequestCount());
+        assertEquals(contents.length + 1, mServer.getServedBytes());
+        assertTrue(mServer.getRequestedRanges().contains("bytes=" + 3 * (contents.length / 4) + "-" + (contents.length - 1)));
+    }
+
+    @Test
+    public void fetchesSegmentsConcurrently() throws Exception {
+        byte[] contents = TestUtils.randomBytes(4 * SEGMENT_SIZE, 5);
+        mServer.putFile("/package.zip", contents);
+        // Slow enough for every segment to still be on its way when the last one starts.
+        mServer.setBytesPerSecond(2 * SEGMENT_SIZE);
+
+        assertTrue(SegmentedDownloader.download(new DefaultTransport(), mServer.getUrl("/package.zip"), mDownloadFile, 4, TestUtils.NO_PROGRESS));
+
+        assertArrayEquals(contents, TestUtils.readFile(mDownloadFile));
+        assertEquals(4, mServer.getMaxActiveResponseCount());
+    }
+
+    @Test
+    public void stopsSlowSegmentsWhenInterrupted() throws Exception {
+        byte[] contents = TestUtils.randomBytes(4 * SEGMENT_SIZE, 6);
+        mServer.putFile("/package.zip", contents);
+        // Each segment would take four seconds.
+        mServer.setBytesPerSecond(SEGMENT_SIZE / 4);
+        final Thread downloadThread = Thread.currentThread();
+        Thread interruptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+
+                downloadThread.interrupt();
+            }
+        });
+        interruptThread.start();
+
+        try {
+            SegmentedDownloader.download(new DefaultTransport(), mServer.getUrl("/package.zip"), mDownloadFile, 4, TestUtils.NO_PROGRESS);
+            fail("The download should have been interrupted.");
+        } catch (CodePushUnknownException e) {
+            // Expected.
+        }
+
+        assertTrue(Thread.interrupted());
+        interruptThread.join();
+        assertFalse(mDownloadFile.exists());
+        assertTrue(mServer.getServedBytes() < contents.length / 2);
+    }
+
+    @Test
+    public void limitsSegmentsToTheirMinimumSize() throws Exception {
+        byte[] contents = TestUtils.randomBytes(2 * SEGMENT_SIZE + 1, 2);
+        mServer.putFile("/package.zip", contents);
+
+        assertTrue(SegmentedDownloader.download(new DefaultTransport(), mServer.getUrl("/package.zip"), mDownloadFile, 8, TestUtils.NO_PROGRESS));
+
+        assertArrayEquals(contents, TestUtils.readFile(mDownloadFile));
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void leavesFilesWithoutRangesToSingleStream() throws Exception {
+        mServer.putFile("/package.zip", TestUtils.randomBytes(4 * SEGMENT_SIZE, 3));
+        mServer.setRangeSupported(false);
+
+        assertFalse(SegmentedDownloader.download(new DefaultTransport(), mServer.getUrl("/package.zip"), mDownloadFile, 4, TestUtils.NO_PROGRESS));
+
+        assertFalse(mDownloadFile.exists());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void leavesSmallFilesToSingleStream() throws Exception {
+        mServer.putFile("/package.zip", TestUtils.randomBytes(SEGMENT_SIZE, 4));
+
+        assertFalse(SegmentedDownloader.download(new DefaultTransport(), mServer.getUrl("/package.zip"), mDownloadFile, 4, TestUtils.NO_PROGRESS));
+
+        assertFalse(mDownloadFile.exists());
+    }
+}
@@ -0,0 +1,244 @@
+package com.microsoft.codepush.react;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Serves files from memory on a local port the way a static file server does: with a strong ETag, and
+// with byte ranges, suffix ranges included, as long as "If-Range" still matches the file. Each
+// connection can be throttled to stand in for a slow link.
+class TestFileServer {
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> mFiles = new ConcurrentHashMap<>();
+    private final List<String> mRequestedRanges = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mServedBytes = new AtomicLong();
+    private final AtomicInteger mActiveResponseCount = new AtomicInteger();
+    private final AtomicInteger mMaxActiveResponseCount = new AtomicInteger();
+    private volatile int mStatusCode = HttpURLConnection.HTTP_OK;
+    private volatile boolean mIsRangeSupported = true;
+    private volatile boolean mIsSizeHidden = false;
+    private volatile long mDroppedResponseLength = -1;
+    private volatile String mRequiredQuery = null;
+    private volatile long mBytesPerSecond = 0;
+    private volatile long mResponseDelayMillis = 0;
+
+    TestFileServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    public URL getUrl(String path) throws MalformedURLException {
+        return new URL("http", "127.0.0.1", mServer.getAddress().getPort(), path);
+    }
+
+    public void putFile(String path, byte[] contents) {
+        mFiles.put(path, contents);
+    }
+
+    // Answers every request with the given status and no body.
+    public void setStatusCode(int statusCode) {
+        mStatusCode = statusCode;
+    }
+
+    // Without range support, the whole file is sent back with a 200.
+    public void setRangeSupported(boolean isRangeSupported) {
+        mIsRangeSupported = isRangeSupported;
+    }
+
+    // Sends "*" as the total size in "Content-Range", and no "Content-Length" for HEAD requests, like
+    // servers that don't know the size yet.
+    public void setSizeHidden(boolean isSizeHidden) {
+        mIsSizeHidden = isSizeHidden;
+    }
+
+    // Answers requests without that query with a 403, like signed storage URLs.
+    public void setRequiredQuery(String requiredQuery) {
+        mRequiredQuery = requiredQuery;
+    }
+
+    // Breaks the connection of the next whole file response once that many bytes are sent.
+    public void dropNextResponseAfter(long length) {
+        mDroppedResponseLength = length;
+    }
+
+    // Sends the body of each response at no more than that rate, 0 for no limit.
+    public void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    // Waits that long before answering each request, like a distant or busy host.
+    public void setResponseDelay(long responseDelayMillis) {
+        mResponseDelayMillis = responseDelayMillis;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getServedBytes() {
+        return mServedBytes.get();
+    }
+
+    // The most response bodies sent at the same time so far.
+    public int getMaxActiveResponseCount() {
+        return mMaxActiveResponseCount.get();
+    }
+
+    // The "Range" header of every GET request so far, null for requests without one.
+    public List<String> getRequestedRanges() {
+        return mRequestedRanges;
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        mRequestCount.incrementAndGet();
+        boolean isHead = "HEAD".equals(exchange.getRequestMethod());
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (!isHead) {
+            mRequestedRanges.add(range);
+        }
+
+        if (mResponseDelayMillis > 0) {
+            sleep(mResponseDelayMillis * 1000000);
+        }
+
+        byte[] file = mFiles.get(exchange.getRequestURI().getPath());
+        if (file == null) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+            return;
+        }
+
+        if (mRequiredQuery != null && !mRequiredQuery.equals(exchange.getRequestURI().getRawQuery())) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_FORBIDDEN, -1);
+            return;
+        }
+
+        if (mStatusCode != HttpURLConnection.HTTP_OK) {
+            exchange.sendResponseHeaders(mStatusCode, -1);
+            return;
+        }
+
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(file)) + "\"";
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().set("ETag", eTag);
+        if (mIsRangeSupported) {
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        }
+
+        if (isHead) {
+            if (!mIsSizeHidden) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(file.length));
+            }
+
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+            return;
+        }
+
+        long start = 0;
+        long end = file.length - 1;
+        boolean isPartial = mIsRangeSupported && range != null && range.startsWith("bytes=")
+                && (ifRange == null || ifRange.equals(eTag));
+        if (isPartial) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            if (bounds[0].isEmpty()) {
+                start = Math.max(0, file.length - Long.parseLong(bounds[1]));
+            } else {
+                start = Long.parseLong(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+            }
+
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + end + "/" + (mIsSizeHidden ? "*" : String.valueOf(file.length)));
+        }
+
+        long length = end - start + 1;
+        long sentLength = length;
+        if (!isPartial && mDroppedResponseLength >= 0) {
+            sentLength = Math.min(length, mDroppedResponseLength);
+            mDroppedResponseLength = -1;
+        }
+
+        exchange.sendResponseHeaders(isPartial ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK, length);
+        int activeResponseCount = mActiveResponseCount.incrementAndGet();
+        try {
+            int maxActiveResponseCount;
+            while ((maxActiveResponseCount = mMaxActiveResponseCount.get()) < activeResponseCount
+                    && !mMaxActiveResponseCount.compareAndSet(maxActiveResponseCount, activeResponseCount)) {
+            }
+
+            writeBody(exchange.getResponseBody(), file, start, sentLength);
+        } finally {
+            mActiveResponseCount.decrementAndGet();
+        }
+    }
+
+    private void writeBody(OutputStream outputStream, byte[] file, long start, long length) throws IOException {
+        long bytesPerSecond = mBytesPerSecond;
+        // Small writes keep a throttled connection close to its rate.
+        int writeSize = bytesPerSecond > 0 ? 16 * 1024 : 64 * 1024;
+        long startTime = System.nanoTime();
+        for (long offset = start; offset < start + length; offset += writeSize) {
+            int count = (int) Math.min(writeSize, start + length - offset);
+            outputStream.write(file, (int) offset, count);
+            outputStream.flush();
+            mServedBytes.addAndGet(count);
+            if (bytesPerSecond > 0) {
+                long dueTime = startTime + (offset - start + count) * 1000000000L / bytesPerSecond;
+                sleep(dueTime - System.nanoTime());
+            }
+        }
+
+        // Closing the exchange before the announced length is sent breaks the connection.
+        outputStream.flush();
+    }
+
+    private static void sleep(long nanos) throws IOException {
+        if (nanos <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while holding back the response.", e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.microsoft.codepush.react;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+class TestUtils {
+
+    public static final DownloadProgressCallback NO_PROGRESS = new DownloadProgressCallback() {
+        @Override
+        public void call(DownloadProgress downloadProgress) {
+        }
+    };
+
+    public static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    public static File createTempFolder() throws IOException {
+        File folder = File.createTempFile("codepush", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new IOException("Unable to create a temporary folder.");
+        }
+
+        return folder;
+    }
+
+    public static byte[] readFile(File file) throws IOException {
+        byte[] contents = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < contents.length) {
+                int numBytesRead = inputStream.read(contents, offset, contents.length - offset);
+                if (numBytesRead < 0) {
+                    throw new IOException("File " + file + " ended unexpectedly.");
+                }
+
+                offset += numBytesRead;
+            }
+
+            return contents;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    public static void writeFile(File file, byte[] contents) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(contents);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    public static String sha256(byte[] data, int offset, int length) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(data, offset, length);
+            return CodePushUpdateUtils.getHashString(messageDigest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -20,6 +20,7 @@ var getFilesInFolder = require("./getFilesInFolder");
 var CODE_PUSH_FOLDER_PREFIX = "CodePush";
 var CODE_PUSH_HASH_FILE_NAME = "CodePushHash";
 var CODE_PUSH_HASH_OLD_FILE_NAME = "CodePushHash.json";
+var CODE_PUSH_BINARY_MANIFEST_FILE_NAME = "CodePushBinaryManifest";
 var HASH_ALGORITHM = "sha256";
 
 var resourcesDir = process.argv[2];
@@ -80,6 +81,11 @@ function addJsBundleAndMetaToManifest() {
             var savedResourcesManifestPath = assetsDir + "/" + CODE_PUSH_HASH_FILE_NAME;
             fs.writeFileSync(savedResourcesManifestPath, finalHash);
 
+            // The manifest itself lets the app use the bundled files as the base of diff updates
+            // while it runs the binary version.
+            var savedBinaryManifestPath = assetsDir + "/" + CODE_PUSH_BINARY_MANIFEST_FILE_NAME;
+            fs.writeFileSync(savedBinaryManifestPath, JSON.stringify(manifest));
+
             // "CodePushHash.json" file name breaks flow type checking.
             // To fix the issue we need to delete "CodePushHash.json" file and
             // use "CodePushHash" file name instead to store the hash value.